@@ -0,0 +1,134 @@
+package soulsestimations;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**Tests the enemy attacks by bands: band(e) is the # of resolved character attacks c' with less(c', e), so
+ * band(x) < band(e) means that x < c' <= e for some c', i.e. less(x, e) is known. Testing an enemy attack e of band b
+ * against c then resolves, besides e, every enemy attack of the bands below b if e < c, or above b otherwise.
+ * The enemy attacks still unresolved for c are kept sorted by band, and purged after every test. The tester picks
+ * the band holding the median of them (binary insertion), or the band that minimizes the expected
+ * log2(1 + the # of unresolved enemy attacks left), c being as likely to fall in any of the gaps between them; then an enemy attack of
+ * that band at random, as the ones of a band can't be told apart*/
+public class BandSplitStrategy implements TestStrategy {
+    private final int characters;
+    private final boolean expectedInformation;
+    //band of every enemy node, by e - characters
+    private final int[] band;
+    //enemy nodes still unresolved for the current character, by ascending band
+    private final int[] unresolved;
+    private final int[] bandCounts;
+    private int bands = 1;
+    private int size;
+    private int current;
+
+    public BandSplitStrategy(int characters, int enemies, boolean expectedInformation) {
+        this.characters = characters;
+        this.expectedInformation = expectedInformation;
+        this.band = new int[enemies];
+        this.unresolved = new int[enemies];
+        this.bandCounts = new int[characters + 2];
+    }
+
+    /**Counting sort of the enemy nodes unresolved for c by band*/
+    @Override
+    public void begin(int c, KnowledgeState less, SplittableRandom rnd) {
+        current = c;
+        Arrays.fill(bandCounts, 0, bands + 1, 0);
+        for (int i = 0; i < band.length; i++) {
+            if (isUnresolved(characters + i, less))
+                bandCounts[band[i] + 1]++;
+        }
+        for (int b = 0; b < bands; b++)
+            bandCounts[b + 1] += bandCounts[b];
+        size = bandCounts[bands];
+        for (int i = 0; i < band.length; i++) {
+            if (isUnresolved(characters + i, less))
+                unresolved[bandCounts[band[i]]++] = characters + i;
+        }
+    }
+
+    @Override
+    public int next(KnowledgeState less, SplittableRandom rnd) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (isUnresolved(unresolved[i], less))
+                unresolved[kept++] = unresolved[i];
+        }
+        size = kept;
+        if (size == 0)
+            return -1;
+        //[from, to): the enemy nodes of the chosen band
+        int from, to;
+        if (expectedInformation) {
+            from = to = 0;
+            double best = Double.POSITIVE_INFINITY;
+            for (int i = 0, j; i < size; i = j) {
+                for (j = i + 1; j < size && bandOf(unresolved[j]) == bandOf(unresolved[i]); j++)
+                    ;
+                //expected rank of the tested enemy node, and the chance that it's less than c
+                double rank = i + (j - i - 1) / 2.0;
+                double tanks = (size - rank) / (size + 1.0);
+                double left = tanks * log2(size - i - 1) + (1 - tanks) * log2(j - 1);
+                if (left < best) {
+                    best = left;
+                    from = i;
+                    to = j;
+                }
+            }
+        } else {
+            int median = bandOf(unresolved[size / 2]);
+            for (from = size / 2; from > 0 && bandOf(unresolved[from - 1]) == median; from--)
+                ;
+            for (to = size / 2 + 1; to < size && bandOf(unresolved[to]) == median; to++)
+                ;
+        }
+        return unresolved[from + rnd.nextInt(to - from)];
+    }
+
+    /**Every enemy node above c moves up a band*/
+    @Override
+    public void end(int c, KnowledgeState less) {
+        for (int i = 0; i < band.length; i++) {
+            if (less.get(c, characters + i))
+                band[i]++;
+        }
+        bands++;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(band, 0);
+        bands = 1;
+    }
+
+    /**{# of bands, the band of every enemy node}: the unresolved ones are sorted again by begin*/
+    @Override
+    public int[] save() {
+        int[] state = new int[1 + band.length];
+        state[0] = bands;
+        System.arraycopy(band, 0, state, 1, band.length);
+        return state;
+    }
+
+    @Override
+    public void restore(int[] state) {
+        if (state.length != 1 + band.length || state[0] < 1 || state[0] > characters + 1)
+            throw new IllegalArgumentException("Not the state of a band tester of " + band.length + " enemy nodes");
+        bands = state[0];
+        System.arraycopy(state, 1, band, 0, band.length);
+    }
+
+    private boolean isUnresolved(int e, KnowledgeState less) {
+        return !less.get(current, e) && !less.get(e, current);
+    }
+
+    private int bandOf(int e) {
+        return band[e - characters];
+    }
+
+    /**log2(1 + the # of enemy nodes left unresolved)*/
+    private static double log2(int left) {
+        return Math.log(1 + left) / Math.log(2);
+    }
+}
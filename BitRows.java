@@ -0,0 +1,54 @@
+package soulsestimations;
+
+/**Word operations on the bit rows of KnowledgeMatrix, one 64-bit word at a time, which C2 already turns into SIMD
+ * instructions on its own for the OR loops. With a build made by mvn -Pvector, -Dhyperarmour.vector=true and a JVM
+ * started with --add-modules jdk.incubator.vector they run on the Vector API instead (VectorBitRows), as wide as the
+ * CPU allows: compare both on ClosureBenchmark before switching it on. VECTOR is a static final read once, so the JIT
+ * keeps a single path; it's null, and the word loops run, when any of the three is missing*/
+final class BitRows {
+    static final Kernel VECTOR = vectorKernel();
+
+    /**The operations below on wider words, implemented by VectorBitRows*/
+    interface Kernel {
+        void or(long[] target, long[] mask, int words);
+
+        boolean anyMissing(long[] a, long[] b, long[] mask, int from, int to);
+    }
+
+    private BitRows() {
+    }
+
+    /**VectorBitRows, looked up by name as the default build leaves it out*/
+    private static Kernel vectorKernel() {
+        if (!Boolean.getBoolean("hyperarmour.vector") ||
+        		ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty())
+            return null;
+        try {
+            return (Kernel) Class.forName("soulsestimations.VectorBitRows").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            System.err.println("VectorBitRows isn't in this build (mvn -Pvector), using the word loops");
+            return null;
+        }
+    }
+
+    /**target |= mask over words [0, words)*/
+    static void or(long[] target, long[] mask, int words) {
+        if (VECTOR != null) {
+            VECTOR.or(target, mask, words);
+            return;
+        }
+        for (int w = 0; w < words; w++)
+            target[w] |= mask[w];
+    }
+
+    /**Whether some bit of mask in words [from, to) is set in neither a nor b. Stops at the first one*/
+    static boolean anyMissing(long[] a, long[] b, long[] mask, int from, int to) {
+        if (VECTOR != null)
+            return VECTOR.anyMissing(a, b, mask, from, to);
+        for (int w = from; w < to; w++) {
+            if ((mask[w] & ~(a[w] | b[w])) != 0)
+                return true;
+        }
+        return false;
+    }
+}
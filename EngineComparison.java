@@ -0,0 +1,245 @@
+package soulsestimations;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**Throughput budget of the knowledge engines and testers, on the real scenarios; that the engines agree trial by
+ * trial is checked by EngineAgreementTest, under mvn test. Every (scenario, tester, engine) configuration runs the
+ * trials of the same master seed, one after the other on the calling thread, and the budget checks that:
+ * every configuration gives the results stored in the baseline file, or if a change to the models altered them, a
+ * mean that doesn't differ from the stored one at the 99% level;
+ * no configuration runs fewer trials per second than in the baseline, less the tolerance.
+ * Trials per second, taken from the median trial time, and bytes allocated per trial are measured after the first
+ * WARMUP trials of a configuration, which build its TrialContext and let the JIT compile the trial loop.
+ * Timings only compare on the machine that took them, so a baseline has to be recorded on the target machine first:
+ * the first run there writes the baseline file and checks nothing, and later runs compare with it and add the
+ * configurations it doesn't hold yet; delete it to record a new one. Failures are listed at the end, and make the
+ * run exit with 1*/
+public class EngineComparison {
+    //trials of every configuration, unless given
+    static final int TRIALS = 8;
+    //master seed, unless given: a baseline is only compared with runs of its own seed
+    static final long SEED = 42;
+    //% of the baseline trials per second a configuration may lose, unless given
+    static final double TOLERANCE = 25;
+    //first trials of every configuration, left out of the timings
+    private static final int WARMUP = 2;
+
+    private final List<Scenario> scenarios;
+    private final int trials;
+    private final long masterSeed;
+    private final List<KnowledgeState.Engine> engines;
+    private final List<TestStrategy.Kind> strategies;
+    private final double tolerance;
+    private final Path baselineFile;
+    private final List<String> failures = new ArrayList<>();
+
+    public EngineComparison(List<Scenario> scenarios, int trials, long masterSeed, List<KnowledgeState.Engine> engines,
+    		List<TestStrategy.Kind> strategies, double tolerance, Path baselineFile) {
+        if (trials <= WARMUP)
+            throw new IllegalArgumentException("Every configuration needs more than the " + WARMUP +
+            		" warm-up trials: " + trials);
+        this.scenarios = scenarios;
+        this.trials = trials;
+        this.masterSeed = masterSeed;
+        this.engines = engines;
+        this.strategies = strategies;
+        this.tolerance = tolerance;
+        this.baselineFile = baselineFile;
+    }
+
+    /**Arguments: baseline file, then optionally [grid file, e.g. of scaled-up scenarios, or - for the scenarios of
+     * MonteCarloHyperarmour and MonteCarloMixed] [trials per configuration] [master seed]
+     * [tolerance, in % of the trials per second] [engines, separated by commas, or all]
+     * [testers, separated by commas, or all]*/
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1)
+            throw new IllegalArgumentException("Usage: EngineComparison baseline-file [grid-file or -] [trials] " +
+            		"[master seed] [tolerance %] [engines] [testers]");
+        List<Scenario> scenarios = args.length > 1 && !args[1].equals("-") ? Scenario.read(Paths.get(args[1])) :
+        		List.of(MonteCarloHyperarmour.SCENARIO, MonteCarloMixed.SCENARIO);
+        int trials = args.length > 2 ? Integer.parseInt(args[2]) : TRIALS;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : SEED;
+        double tolerance = args.length > 4 ? Double.parseDouble(args[4]) : TOLERANCE;
+        List<KnowledgeState.Engine> engines = args.length > 5 ? parseList(args[5], KnowledgeState.Engine.values(),
+        		KnowledgeState.Engine::valueOf) : List.of(KnowledgeState.Engine.values());
+        List<TestStrategy.Kind> strategies = args.length > 6 ? parseList(args[6], TestStrategy.Kind.values(),
+        		TestStrategy.Kind::valueOf) : List.of(TestStrategy.Kind.values());
+        System.out.printf("Comparing %s engines with %s testers on %d scenarios, %d trials each. Master seed %d, " +
+        		"tolerance %.1f%%%n", engines, strategies, scenarios.size(), trials, seed, tolerance);
+        EngineComparison comparison = new EngineComparison(scenarios, trials, seed, engines, strategies, tolerance,
+        		Paths.get(args[0]));
+        if (!comparison.run())
+            System.exit(1);
+    }
+
+    /**Runs every configuration and compares it with the others and with the baseline, which it then tops up.
+     * Returns whether every check passed*/
+    public boolean run() throws IOException {
+        long t0 = System.currentTimeMillis();
+        Map<String, String[]> baseline = readBaseline();
+        int stored = baseline.size();
+        for (Scenario scenario : scenarios) {
+            for (TestStrategy.Kind strategy : strategies) {
+                for (KnowledgeState.Engine engine : engines) {
+                    String name = scenario.getName() + " " + engine + " " + strategy;
+                    String[] row = measure(scenario, engine, strategy);
+                    RunningStats stats = stats(row);
+                    System.out.printf("%s: mean %.3f ± %.3f, %.2f trials/s, %.0f bytes/trial%n", name,
+                    		stats.getMean(), stats.halfWidth(), Double.parseDouble(row[10]),
+                    		Double.parseDouble(row[11]));
+                    String[] old = baseline.putIfAbsent(key(row), row);
+                    if (old == null)
+                        System.out.println("    no baseline yet: recorded");
+                    else
+                        compare(name, row, old);
+                }
+            }
+        }
+        if (baseline.size() > stored)
+            writeBaseline(baseline);
+        System.out.printf("Comparison done in %.1f s, baseline in %s%n", (System.currentTimeMillis() - t0) / 1000.0,
+        		baselineFile);
+        if (failures.isEmpty()) {
+            System.out.println("All checks passed");
+            return true;
+        }
+        System.out.printf("%d checks failed:%n", failures.size());
+        failures.forEach(failure -> System.out.println("    " + failure));
+        return false;
+    }
+
+    /**Runs the trials of a configuration, and returns its baseline row: scenario, poises, hyperarmours, damages,
+     * engine, tester, # of trials, mean, sum of squares, digest of the results, trials per second and bytes allocated
+     * per trial, NaN if the JVM doesn't count them*/
+    private String[] measure(Scenario scenario, KnowledgeState.Engine engine, TestStrategy.Kind strategy) {
+        RunningStats stats = new RunningStats();
+        long digest = 0;
+        long bytes = 0;
+        long[] nanos = new long[trials - WARMUP];
+        for (int t = 0; t < trials; t++) {
+            if (t == WARMUP)
+                bytes = allocatedBytes();
+            long start = System.nanoTime();
+            int tests = scenario.runOneTrial(TrialRunner.streamFor(masterSeed, t), engine, strategy);
+            if (t >= WARMUP)
+                nanos[t - WARMUP] = System.nanoTime() - start;
+            stats.add(tests);
+            digest = 31 * digest + tests;
+        }
+        //the median trial, which a JIT compilation or a GC pause in a few trials doesn't move
+        Arrays.sort(nanos);
+        double seconds = nanos[nanos.length / 2] / 1e9;
+        double bytesPerTrial = bytes < 0 ? Double.NaN : (double) (allocatedBytes() - bytes) / (trials - WARMUP);
+        String[] tiers = scenario.describe();
+        //Double.toString round-trips, so a baseline compares with the very statistics it was written from
+        return new String[] {scenario.getName(), tiers[0], tiers[1], tiers[2], engine.name(), strategy.name(),
+        		Long.toString(stats.getCount()), Double.toString(stats.getMean()),
+        		Double.toString(stats.getSumOfSquares()), Long.toHexString(digest),
+        		Double.toString(1 / seconds), Double.toString(bytesPerTrial)};
+    }
+
+    /**Fails if the results of a configuration differ from its baseline beyond chance, or if it got slower than its
+     * baseline less the tolerance*/
+    private void compare(String name, String[] row, String[] old) {
+        for (int f = 1; f < 4; f++) {
+            if (!row[f].equals(old[f]))
+                throw new IllegalStateException(baselineFile + " holds another " + row[0] + " scenario: delete it " +
+                		"to start over");
+        }
+        RunningStats stats = stats(row);
+        RunningStats expected = stats(old);
+        if (row[9].equals(old[9])) {
+            System.out.print("    same results as the baseline");
+        } else {
+            double difference = stats.getMean() - expected.getMean();
+            double standardError = Math.hypot(stats.standardError(), expected.standardError());
+            if (!(Math.abs(difference) <= RunningStats.Z99 * standardError)) {
+                fail(String.format("%s: mean %.3f, %.3f in the baseline (99%% CI of the difference ± %.3f)", name,
+                		stats.getMean(), expected.getMean(), RunningStats.Z99 * standardError));
+                return;
+            }
+            System.out.printf("    results changed, mean within %.3f of the baseline (99%% CI ± %.3f)", difference,
+            		RunningStats.Z99 * standardError);
+        }
+        double speed = Double.parseDouble(row[10]) / Double.parseDouble(old[10]);
+        System.out.printf(", %.1f%% of its trials/s%n", 100 * speed);
+        if (speed < 1 - tolerance / 100)
+            fail(String.format("%s: %.2f trials/s, %.2f in the baseline", name, Double.parseDouble(row[10]),
+            		Double.parseDouble(old[10])));
+    }
+
+    private void fail(String failure) {
+        System.out.println("    FAILED " + failure);
+        failures.add(failure);
+    }
+
+    /**Bytes allocated by the calling thread so far, -1 if the JVM doesn't count them*/
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) threads).getCurrentThreadAllocatedBytes();
+        return -1;
+    }
+
+    private static RunningStats stats(String[] row) {
+        return new RunningStats(Long.parseLong(row[6]), Double.parseDouble(row[7]), Double.parseDouble(row[8]));
+    }
+
+    private static String key(String[] row) {
+        return row[0] + " " + row[4] + " " + row[5];
+    }
+
+    /**The rows of the baseline file by key, or none if there isn't one*/
+    private Map<String, String[]> readBaseline() throws IOException {
+        Map<String, String[]> baseline = new LinkedHashMap<>();
+        if (!Files.exists(baselineFile))
+            return baseline;
+        List<String> lines = Files.readAllLines(baselineFile);
+        if (lines.isEmpty() || !lines.get(0).equals(settings()))
+            throw new IllegalStateException(baselineFile + " was written with other settings than " + settings() +
+            		": delete it to start over");
+        for (String line : lines.subList(1, lines.size())) {
+            String[] row = line.split("\t");
+            if (row.length != 12)
+                throw new IllegalStateException(baselineFile + " isn't a baseline file: delete it to start over");
+            baseline.put(key(row), row);
+        }
+        return baseline;
+    }
+
+    /**Writes the baseline next to its file, then replaces the file at once*/
+    private void writeBaseline(Map<String, String[]> baseline) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add(settings());
+        for (String[] row : baseline.values())
+            lines.add(String.join("\t", row));
+        Path temporary = Paths.get(baselineFile + ".tmp");
+        Files.write(temporary, lines);
+        Files.move(temporary, baselineFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private String settings() {
+        return "seed " + masterSeed + ", " + trials + " trials";
+    }
+
+    /**"a,b,c" as a list of constants, all of them for "all"*/
+    private static <T extends Enum<T>> List<T> parseList(String list, T[] all, Function<String, T> valueOf) {
+        if (list.equalsIgnoreCase("all"))
+            return List.of(all);
+        return Arrays.stream(list.split(",")).map(s -> valueOf.apply(s.trim().toUpperCase()))
+        		.collect(Collectors.toList());
+    }
+}
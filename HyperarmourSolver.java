@@ -0,0 +1,130 @@
+package soulsestimations;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import soulsestimations.Poise.Stance;
+
+/**Exact E[testsPerformed] of MonteCarloHyperarmour.runOneTrial under the RANDOM tester, computed over the tiers.
+ * Every character attack the tester is done with is resolved against every enemy attack, so what the tester knows when
+ * it starts on c only depends on the set T of hyperarmour values resolved so far: they split the enemy attacks into
+ * bands, band(e) being the # of values in T that are <= D(e), and less(e, e') is known iff band(e) < band(e').
+ * Nothing is known about c itself yet. An enemy attack e < c is then tested iff it comes, in the random order of the
+ * enemy attacks, before every e' < c of a higher band: any of them tested or skipped first resolves e, and nothing
+ * else does. Likewise for an enemy attack e >= c and the e' >= c of the lower bands. So c costs
+ * f(T, H(c)) = Σ_{e < c} 1 / (1 + #{e' < c : band(e') > band(e)}) + Σ_{e >= c} 1 / (1 + #{e' >= c : band(e') < band(e)})
+ * tests on average, and the trial Σ_c E[f(T_c, H(c))], T_c being the values of the character attacks before c.
+ * c is as likely to be at any of the M positions, and its predecessors all come from tiers in U ⊆ T with probability
+ * Σ_j C(s_U, j) / C(M - 1, j) / M = 1 / (M - s_U), s_U being the # of the other character attacks in U: a Möbius
+ * inversion over the subsets gives P(T_c = T). The cost is O(K 2^K (K + D)) for K hyperarmour and D damage tiers*/
+public class HyperarmourSolver {
+    //2^K subsets are enumerated for every hyperarmour tier
+    static final int MAX_TIERS = 20;
+
+    /**Optional arguments: none, the tiers being the ones of MonteCarloHyperarmour*/
+    public static void main(String[] args) {
+        long t0 = System.nanoTime();
+        double expected = expectedTests(MonteCarloHyperarmour.HYPERARMOURS, MonteCarloHyperarmour.DAMAGES);
+        double naive = (double) MonteCarloHyperarmour.M * MonteCarloHyperarmour.N;
+        System.out.printf("E[tests] = %.3f, %.3f%% of M*N = %.0f (%.1f ms)%n", expected, 100.0 * expected / naive, naive,
+        		(System.nanoTime() - t0) / 1e6);
+    }
+
+    /**Cost of a character attack of hyperarmour tier a, resolved being the bit mask of the tiers resolved before it*/
+    interface AttackCost {
+        double of(int resolved, int a);
+    }
+
+    /**E[testsPerformed] of MonteCarloHyperarmour.runOneTrial(hyperarmours, damages, rnd, false, engine, RANDOM),
+     * the same for every engine*/
+    public static double expectedTests(Stance[] hyperarmours, Stance[] damages) {
+        //tiers of the same value are merged, empty ones dropped
+        int[][] h = merge(hyperarmours);
+        int[][] d = merge(damages);
+        return expectedTests(h[1], 0, (resolved, a) -> testsOf(resolved, h[0], h[0][a], d));
+    }
+
+    /**Σ_c E[cost(T_c, tier of c)] over character attacks tested in a uniformly random order, counts[t] of them
+     * being of tier t, T_c holding the tiers in resolved besides the ones of the attacks before c*/
+    static double expectedTests(int[] counts, int resolved, AttackCost cost) {
+        return expectedTests(counts, resolved, cost, 0);
+    }
+
+    /**The same sum over the attacks after the first skip of the order only: these being a random subset, the
+     * predecessors of c come from the tiers in U and c comes after the first skip with probability
+     * C(s_U, skip) / ((M - s_U) C(M, skip)), the first skip attacks of the order then all being in U*/
+    static double expectedTests(int[] counts, int resolved, AttackCost cost, int skip) {
+        int k = counts.length;
+        if (k > MAX_TIERS)
+            throw new IllegalArgumentException("Up to " + MAX_TIERS + " hyperarmour tiers, not " + k);
+        int m = Arrays.stream(counts).sum();
+        double total = 0.0;
+        double[] probability = new double[1 << k];
+        for (int a = 0; a < k; a++) {
+            if (counts[a] == 0)
+                continue;
+            //1 / (M - s_U), s_U counting every character attack in U but c
+            for (int u = 0; u < 1 << k; u++) {
+                int others = 0;
+                for (int t = 0; t < k; t++) {
+                    if ((u & (1 << t)) != 0)
+                        others += counts[t] - (t == a ? 1 : 0);
+                }
+                probability[u] = 1.0 / (m - others);
+                for (int i = 0; i < skip; i++)
+                    probability[u] *= (double) (others - i) / (m - i);
+            }
+            //P(the predecessors of c come from exactly the tiers of T)
+            for (int t = 0; t < k; t++) {
+                for (int u = 0; u < 1 << k; u++) {
+                    if ((u & (1 << t)) != 0)
+                        probability[u] -= probability[u ^ (1 << t)];
+                }
+            }
+            double perAttack = 0.0;
+            for (int u = 0; u < 1 << k; u++) {
+                if (probability[u] != 0.0)
+                    perAttack += probability[u] * cost.of(u | resolved, a);
+            }
+            total += counts[a] * perAttack;
+        }
+        return total;
+    }
+
+    /**f(T, H(c)): expected tests of a character attack of hyperarmour value, T being the subset of the hyperarmour
+     * values resolved, as a bit mask over values*/
+    static double testsOf(int resolved, int[] values, int value, int[][] damages) {
+        int tiers = damages[0].length;
+        int[] band = new int[tiers];
+        for (int i = 0; i < tiers; i++) {
+            for (int t = 0; t < values.length; t++) {
+                if ((resolved & (1 << t)) != 0 && values[t] <= damages[0][i])
+                    band[i]++;
+            }
+        }
+        double tests = 0.0;
+        for (int i = 0; i < tiers; i++) {
+            boolean tanks = damages[0][i] < value;
+            //enemy attacks on the same side of c that resolve the ones of tier i if met first
+            int resolvers = 0;
+            for (int j = 0; j < tiers; j++) {
+                if ((damages[0][j] < value) == tanks && (tanks ? band[j] > band[i] : band[j] < band[i]))
+                    resolvers += damages[1][j];
+            }
+            tests += (double) damages[1][i] / (1 + resolvers);
+        }
+        return tests;
+    }
+
+    /**{ascending values, counts} of the tiers with at least one attack*/
+    static int[][] merge(Stance[] stances) {
+        Map<Integer, Integer> counts = new TreeMap<>();
+        for (Stance s : stances) {
+            if (s.getCount() > 0)
+                counts.merge(s.getValue(), s.getCount(), Integer::sum);
+        }
+        return new int[][] {counts.keySet().stream().mapToInt(Integer::intValue).toArray(),
+        		counts.values().stream().mapToInt(Integer::intValue).toArray()};
+    }
+}
@@ -0,0 +1,176 @@
+package soulsestimations;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**Counters and JDK Flight Recorder events for the trial loops, switched on by -Dhyperarmour.instrument=true.
+ * ENABLED is a static final read once, so when it's false the JIT folds every "if (Instrumentation.ENABLED)" away
+ * and the loops run exactly as without instrumentation. When it's true, every trial commits a Trial event and every
+ * observation a Closure event, to be recorded with e.g. -XX:StartFlightRecording:filename=trials.jfr, and their
+ * totals are kept for summary()*/
+public final class Instrumentation {
+    public static final boolean ENABLED = Boolean.getBoolean("hyperarmour.instrument");
+
+    private static final LongAdder TRIALS = new LongAdder();
+    private static final LongAdder TRIAL_NANOS = new LongAdder();
+    private static final LongAdder TESTS = new LongAdder();
+    private static final LongAdder CLOSURES = new LongAdder();
+    private static final LongAdder TRACKED_CLOSURES = new LongAdder();
+    private static final LongAdder CELLS_SET = new LongAdder();
+    private static final LongAdder LESSER = new LongAdder();
+    private static final LongAdder GREATER = new LongAdder();
+    private static final LongAdder CLOSURE_NANOS = new LongAdder();
+    private static final LongAdder STOPPING_NANOS = new LongAdder();
+
+    private Instrumentation() {
+    }
+
+    @Name("soulsestimations.Trial")
+    @Label("Trial")
+    @Category("Hyperarmour")
+    @StackTrace(false)
+    @Description("A single runOneTrial, from the sampling of its world to its last test")
+    static class TrialEvent extends Event {
+        @Label("Model")
+        String model;
+        @Label("Engine")
+        String engine;
+        @Label("Tester")
+        String tester;
+        @Label("Tests performed")
+        int tests;
+        @Label("Closures")
+        long closures;
+        @Label("Cells set")
+        @Description("Relations added by the closures, -1 if the engine doesn't track them")
+        long cellsSet;
+        @Label("Closure time")
+        @Timespan(Timespan.NANOSECONDS)
+        long closureNanos;
+        @Label("Stopping checks time")
+        @Timespan(Timespan.NANOSECONDS)
+        long stoppingNanos;
+    }
+
+    @Name("soulsestimations.Closure")
+    @Label("Closure")
+    @Category("Hyperarmour")
+    @StackTrace(false)
+    @Description("A single applyTransitiveClosure(u, v) after a test")
+    static class ClosureEvent extends Event {
+        @Label("u")
+        int u;
+        @Label("v")
+        int v;
+        @Label("Lesser set")
+        @Description("Nodes lesser than u, u included, -1 if the engine doesn't track them")
+        int lesser;
+        @Label("Greater set")
+        @Description("Nodes greater than v, v included, -1 if the engine doesn't track them")
+        int greater;
+        @Label("Cells set")
+        @Description("Relations added, -1 if the engine doesn't track them")
+        int cellsSet;
+    }
+
+    /**What a single trial did, created only when ENABLED*/
+    static class Probe {
+        private final String model;
+        private final KnowledgeState.Engine engine;
+        private final TestStrategy.Kind tester;
+        private final TrialEvent event = new TrialEvent();
+        private final long start = System.nanoTime();
+        private long closures;
+        private long trackedClosures;
+        private long cellsSet;
+        private long lesser;
+        private long greater;
+        private long closureNanos;
+        private long stoppingNanos;
+
+        Probe(String model, KnowledgeState.Engine engine, TestStrategy.Kind tester) {
+            this.model = model;
+            this.engine = engine;
+            this.tester = tester;
+            event.begin();
+        }
+
+        /**applyTransitiveClosure(u, v) on less, started at System.nanoTime() start, is over*/
+        void closed(int u, int v, KnowledgeState less, long start) {
+            long nanos = System.nanoTime() - start;
+            closures++;
+            closureNanos += nanos;
+            int[] sizes = less.lastClosure();
+            if (sizes != null) {
+                trackedClosures++;
+                lesser += sizes[0];
+                greater += sizes[1];
+                cellsSet += sizes[2];
+            }
+            ClosureEvent closure = new ClosureEvent();
+            if (closure.isEnabled()) {
+                closure.u = u;
+                closure.v = v;
+                closure.lesser = sizes == null ? -1 : sizes[0];
+                closure.greater = sizes == null ? -1 : sizes[1];
+                closure.cellsSet = sizes == null ? -1 : sizes[2];
+                closure.commit();
+            }
+        }
+
+        /**A stopping check, started at System.nanoTime() start, is over*/
+        void checked(long start) {
+            stoppingNanos += System.nanoTime() - start;
+        }
+
+        /**The trial is over after the given # of tests*/
+        void finished(int tests) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.model = model;
+                event.engine = engine.name();
+                event.tester = tester.name();
+                event.tests = tests;
+                event.closures = closures;
+                event.cellsSet = trackedClosures == closures ? cellsSet : -1;
+                event.closureNanos = closureNanos;
+                event.stoppingNanos = stoppingNanos;
+                event.commit();
+            }
+            TRIALS.increment();
+            TRIAL_NANOS.add(System.nanoTime() - start);
+            TESTS.add(tests);
+            CLOSURES.add(closures);
+            TRACKED_CLOSURES.add(trackedClosures);
+            CELLS_SET.add(cellsSet);
+            LESSER.add(lesser);
+            GREATER.add(greater);
+            CLOSURE_NANOS.add(closureNanos);
+            STOPPING_NANOS.add(stoppingNanos);
+        }
+    }
+
+    /**Totals over every trial run so far, empty if not ENABLED*/
+    public static String summary() {
+        if (!ENABLED || TRIALS.sum() == 0)
+            return "";
+        double trials = TRIALS.sum();
+        double trialNanos = TRIAL_NANOS.sum();
+        long tracked = TRACKED_CLOSURES.sum();
+        StringBuilder summary = new StringBuilder(String.format(
+        		"Instrumentation: %.0f trials, %.1f ms and %.1f tests per trial, %.1f%% of the time in closures, " +
+        		"%.1f%% in stopping checks", trials, trialNanos / trials / 1e6, TESTS.sum() / trials,
+        		100.0 * CLOSURE_NANOS.sum() / trialNanos, 100.0 * STOPPING_NANOS.sum() / trialNanos));
+        if (tracked > 0)
+            summary.append(String.format("%nPer closure: %.1f lesser nodes, %.1f greater nodes, %.1f cells set",
+            		(double) LESSER.sum() / tracked, (double) GREATER.sum() / tracked, (double) CELLS_SET.sum() / tracked));
+        return summary.toString();
+    }
+}
@@ -0,0 +1,182 @@
+package soulsestimations;
+
+import java.util.Arrays;
+
+/**Bit-packed version of the less(n, n') matrix described in MonteCarloHyperarmour.md.
+ * Bit k of row j is set iff less(j, k); the transposed columns are kept as well, so that both the set of nodes
+ * lesser than u and the set of nodes greater than v can be read as a single row of 64-bit words.
+ * Nodes 0 to C are character attacks, split into consecutive groups (e.g. poise tiers), and nodes C to C+N are
+ * enemy attacks. A character node, once resolved against every enemy node, stays resolved, so each group keeps a
+ * cursor on its first node not known to be resolved and the stopping conditions never look at a node twice.
+ * Rows are OR-ed together and scanned for unresolved enemy nodes by BitRows, optionally on the Vector API*/
+public class KnowledgeMatrix implements KnowledgeState {
+    private final int nodes;
+    private final int words;
+    //rows[j]: every k such that less(j, k)
+    private final long[][] rows;
+    //cols[k]: every j such that less(j, k)
+    private final long[][] cols;
+    //scratch rows holding the lesser and greater sets of the closure being applied
+    private final long[] lesser;
+    private final long[] greater;
+    private final int characters;
+    private final int groupSize;
+    //bits of the enemy nodes, all of which lie in words firstEnemyWord to words
+    private final long[] enemyMask;
+    private final int firstEnemyWord;
+    //cursors[g]: first node of group g that may still be unresolved
+    private final int[] cursors;
+    //first character node that may still be unresolved
+    private int cursor;
+    //see lastClosure()
+    private final int[] last = Instrumentation.ENABLED ? new int[3] : null;
+
+    /**A single group holding all the character nodes*/
+    public KnowledgeMatrix(int characters, int enemies) {
+        this(characters, enemies, Math.max(characters, 1));
+    }
+
+    public KnowledgeMatrix(int characters, int enemies, int groupSize) {
+        if (groupSize < 1 || characters % groupSize != 0)
+            throw new IllegalArgumentException(characters + " character nodes can't be split in groups of " + groupSize);
+        this.nodes = characters + enemies;
+        this.words = (nodes + 63) >>> 6;
+        this.rows = new long[nodes][words];
+        this.cols = new long[nodes][words];
+        this.lesser = new long[words];
+        this.greater = new long[words];
+        this.characters = characters;
+        this.groupSize = groupSize;
+        this.enemyMask = new long[words];
+        for (int e = characters; e < nodes; e++)
+            enemyMask[e >>> 6] |= 1L << e;
+        this.firstEnemyWord = characters >>> 6;
+        this.cursors = new int[characters / groupSize];
+        resetCursors();
+    }
+
+    public int size() {
+        return nodes;
+    }
+
+    /**# of enemy nodes e for which neither less(c, e) nor less(e, c) is known.
+     * Costs enemies/64 word operations, however many tests were performed*/
+    @Override
+    public int unresolvedEnemies(int c) {
+        long[] row = rows[c];
+        long[] col = cols[c];
+        int resolved = 0;
+        for (int w = firstEnemyWord; w < words; w++)
+            resolved += Long.bitCount((row[w] | col[w]) & enemyMask[w]);
+        return nodes - characters - resolved;
+    }
+
+    /**Stops at the first word holding an unresolved enemy node*/
+    @Override
+    public boolean isResolved(int c) {
+        return !BitRows.anyMissing(rows[c], cols[c], enemyMask, firstEnemyWord, words);
+    }
+
+    /**∀i(i ∈ G -> ∀j(j ∈ E -> less(i,j) OR less(j,i))), G being the character nodes of group g*/
+    @Override
+    public boolean isGroupResolved(int g) {
+        int end = (g + 1) * groupSize;
+        while (cursors[g] < end && isResolved(cursors[g]))
+            cursors[g]++;
+        return cursors[g] == end;
+    }
+
+    /**∀i(i ∈ C -> ∀j(j ∈ E -> less(i,j) OR less(j,i)))*/
+    @Override
+    public boolean isAllResolved() {
+        while (cursor < characters && isResolved(cursor))
+            cursor++;
+        return cursor == characters;
+    }
+
+    /**less(a, b)*/
+    @Override
+    public boolean get(int a, int b) {
+        return (rows[a][b >>> 6] & (1L << b)) != 0;
+    }
+
+    /** ∀j[(less(j,u) OR j = u) -> ∀k[(less(v,k) OR k = v) -> less(j,k)]]
+     * The greater set is OR-ed into the row of every lesser node one word at a time, and the lesser set into
+     * the column of every greater node, so the cost is (|lesser| + |greater|) * nodes/64 word operations*/
+    @Override
+    public void applyTransitiveClosure(int u, int v) {
+        //the matrix is kept closed, so everything less(u, v) implies is already there
+        if (get(u, v)) {
+            if (Instrumentation.ENABLED)
+                Arrays.fill(last, 0);
+            return;
+        }
+        System.arraycopy(cols[u], 0, lesser, 0, words);
+        System.arraycopy(rows[v], 0, greater, 0, words);
+        lesser[u >>> 6] |= 1L << u;
+        greater[v >>> 6] |= 1L << v;
+        if (Instrumentation.ENABLED) {
+            last[0] = bitCount(lesser);
+            last[1] = bitCount(greater);
+            last[2] = 0;
+        }
+        for (int w = 0; w < words; w++) {
+            for (long bits = lesser[w]; bits != 0; bits &= bits - 1) {
+                long[] row = rows[(w << 6) + Long.numberOfTrailingZeros(bits)];
+                if (Instrumentation.ENABLED)
+                    last[2] += bitCount(greater, row);
+                or(row, greater);
+            }
+        }
+        for (int w = 0; w < words; w++) {
+            for (long bits = greater[w]; bits != 0; bits &= bits - 1)
+                or(cols[(w << 6) + Long.numberOfTrailingZeros(bits)], lesser);
+        }
+    }
+
+    @Override
+    public int[] lastClosure() {
+        return last;
+    }
+
+    /**Forgets every relation, so the matrix can be reused for another trial*/
+    @Override
+    public void clear() {
+        for (int j = 0; j < nodes; j++) {
+            Arrays.fill(rows[j], 0L);
+            Arrays.fill(cols[j], 0L);
+        }
+        resetCursors();
+    }
+
+    /**Same as clear(): the matrix doesn't depend on the values*/
+    @Override
+    public void reset(double[] values) {
+        clear();
+    }
+
+    private void resetCursors() {
+        for (int g = 0; g < cursors.length; g++)
+            cursors[g] = g * groupSize;
+        cursor = 0;
+    }
+
+    private void or(long[] target, long[] mask) {
+        BitRows.or(target, mask, words);
+    }
+
+    private static int bitCount(long[] set) {
+        int count = 0;
+        for (long word : set)
+            count += Long.bitCount(word);
+        return count;
+    }
+
+    /**# of bits of mask missing from target*/
+    private static int bitCount(long[] mask, long[] target) {
+        int count = 0;
+        for (int w = 0; w < mask.length; w++)
+            count += Long.bitCount(mask[w] & ~target[w]);
+        return count;
+    }
+}
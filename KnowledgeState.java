@@ -0,0 +1,71 @@
+package soulsestimations;
+
+/**What is known of the less(n, n') relation described in MonteCarloHyperarmour.md during a single trial.
+ * Nodes 0 to C are character attacks, split into consecutive groups (e.g. poise tiers), and nodes C to C+N are
+ * enemy attacks*/
+public interface KnowledgeState {
+    /**The implementations a trial can run on*/
+    enum Engine {
+        /**The whole relation, closed after every observation*/
+        MATRIX,
+        /**Thresholds on the hidden values, in O(n) memory*/
+        INTERVALS,
+        /**Knows that every group is a poise tier multiplying the same character attacks, so it draws more from
+         * each observation, at a fraction of the matrix memory*/
+        PRODUCT,
+        /**The matrix in a direct buffer, outside the heap*/
+        OFFHEAP,
+        /**The observations alone, the relation being worked out only for the nodes that get queried*/
+        LAZY;
+
+        /**A fresh knowledge state for the nodes holding the given hidden values*/
+        public KnowledgeState create(double[] values, int characters, int enemies, int groupSize) {
+            switch (this) {
+                case INTERVALS:
+                    return new RankIntervalKnowledge(values, characters, enemies, groupSize);
+                case PRODUCT:
+                    return new ProductOrderKnowledge(values, characters, enemies, groupSize);
+                case OFFHEAP:
+                    return new OffHeapKnowledge(characters, enemies, groupSize);
+                case LAZY:
+                    return new ReachabilityKnowledge(characters, enemies, groupSize);
+                default:
+                    return new KnowledgeMatrix(characters, enemies, groupSize);
+            }
+        }
+    }
+
+    /**less(a, b)*/
+    boolean get(int a, int b);
+
+    /** ∀j[(less(j,u) OR j = u) -> ∀k[(less(v,k) OR k = v) -> less(j,k)]] */
+    void applyTransitiveClosure(int u, int v);
+
+    /**# of enemy nodes e for which neither less(c, e) nor less(e, c) is known*/
+    int unresolvedEnemies(int c);
+
+    /**∀j(j ∈ E -> less(c,j) OR less(j,c)), i.e. unresolvedEnemies(c) == 0, which an engine may tell without counting*/
+    default boolean isResolved(int c) {
+        return unresolvedEnemies(c) == 0;
+    }
+
+    /**∀i(i ∈ G -> ∀j(j ∈ E -> less(i,j) OR less(j,i))), G being the character nodes of group g*/
+    boolean isGroupResolved(int g);
+
+    /**∀i(i ∈ C -> ∀j(j ∈ E -> less(i,j) OR less(j,i)))*/
+    boolean isAllResolved();
+
+    /**{|lesser|, |greater|, relations added} of the last applyTransitiveClosure, the lesser set holding u and every
+     * node less than u, the greater set v and every node greater than v. Only kept when Instrumentation.ENABLED, by
+     * the engines that hold those sets: null otherwise*/
+    default int[] lastClosure() {
+        return null;
+    }
+
+    /**Forgets every relation, so the state can be reused for another trial*/
+    void clear();
+
+    /**Forgets every relation and takes values as the hidden values of the nodes from now on, so the state can be
+     * reused for another trial of as many nodes, whose world was sampled into values*/
+    void reset(double[] values);
+}
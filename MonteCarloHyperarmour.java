@@ -1,9 +1,10 @@
 package soulsestimations;
 
-import java.util.ArrayList;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Random;
+import java.util.SplittableRandom;
 import java.util.stream.IntStream;
 
 import soulsestimations.Poise.Stance;
@@ -12,10 +13,10 @@ public class MonteCarloHyperarmour {
 
     //CONFIG
 	//50 character attacks with 0 hyperarmour, 80 character attacks with 31 hyperarmour, etc.
-	private static final Stance[] HYPERARMOURS = {new Stance(0, 50), new Stance(31, 80), new Stance(61, 100), 
+	static final Stance[] HYPERARMOURS = {new Stance(0, 50), new Stance(31, 80), new Stance(61, 100), 
 			new Stance(91, 60), new Stance(121, 10)};
 	//150 enemy attacks with 30 stance damage, etc.
-	private static final Stance[] DAMAGES = {new Stance(30, 150), new Stance(60, 200), new Stance(90, 200), 
+	static final Stance[] DAMAGES = {new Stance(30, 150), new Stance(60, 200), new Stance(90, 200), 
 			new Stance(120, 50)};
 	//# of player attacks
     static final int M = Arrays.stream(HYPERARMOURS).mapToInt(Stance::getCount).sum();
@@ -23,96 +24,217 @@ public class MonteCarloHyperarmour {
     static final int N = Arrays.stream(DAMAGES).mapToInt(Stance::getCount).sum();
     //Monte Carlo runs
     static final int TRIALS = 2000;
+    //Monte Carlo runs at most, when they stop on a target precision instead
+    static final long MAX_TRIALS = 1_000_000;
 
     static final int TOTAL_NODES = M + N;
-    static final Random rnd = new Random();
+    //the configuration above, as the result cache and shard files know it
+    static final Scenario SCENARIO = new Scenario("hyperarmour", new Stance[0], HYPERARMOURS, DAMAGES);
 
+    /**Optional arguments: [master seed] [worker threads] [engine: matrix, intervals, product, offheap or lazy]
+     * [99% CI half-width to stop at, e.g. 0.5 or 1%, or - for TRIALS trials] [sampling: plain, antithetic or control]
+     * [tester: random, median or information] [shard k:S, to run trials k·S to (k+1)·S - 1 only and write their
+     * results for ShardMerge] [shard file, by default hyperarmour-<seed>-<k>.shard]*/
     public static void main(String[] args) {
-        System.out.println("Running Monte Carlo with " + M + " character attacks and " + N + 
-        		" enemy attacks. " + TRIALS + " trials.");
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : System.nanoTime();
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        KnowledgeState.Engine engine = args.length > 2 ? KnowledgeState.Engine.valueOf(args[2].toUpperCase()) :
+        		KnowledgeState.Engine.MATRIX;
+        Precision precision = args.length > 3 ? Precision.parse(args[3]) : null;
+        long trials = precision == null ? TRIALS : MAX_TRIALS;
+        Sampling sampling = args.length > 4 ? Sampling.valueOf(args[4].toUpperCase()) : Sampling.PLAIN;
+        if (sampling == Sampling.STRATIFIED)
+        	throw new IllegalArgumentException("Stratified sampling works on poise tiers, see MonteCarloMixed");
+        TestStrategy.Kind strategy = args.length > 5 ? TestStrategy.Kind.valueOf(args[5].toUpperCase()) :
+        		TestStrategy.Kind.RANDOM;
+        long[] shard = args.length > 6 ? ShardFile.range(args[6], precision, sampling) : null;
+        System.out.println("Running Monte Carlo with " + M + " character attacks and " + N + " enemy attacks. " +
+        		(shard != null ? "Trials " + shard[0] + " to " + (shard[0] + shard[1] - 1) + " only." :
+        		precision == null ? TRIALS + " trials." : "Up to " + MAX_TRIALS + " trials, until the 99% CI is " +
+        		precision + "."));
+        System.out.println("Master seed " + seed + ", " + threads + " worker threads, " + engine + " engine, " +
+        		sampling + " sampling, " + strategy + " tester.");
         System.out.println();
-        double[] results = new double[TRIALS];
+        QuantileSketch sketch = new QuantileSketch();
+        SamplingStats stats = newStats(sampling);
+        TrialRunner.Trial trial = (t, rnd) -> runOneTrial(sampling.streamFor(seed, t), sampling.isMirrored(t), engine,
+        		strategy);
         long t0 = System.currentTimeMillis();
-        for (int t = 0; t < TRIALS; t++) {
-            results[t] = runOneTrial(); 
-            if ((t+1) % 100 == 0) {
-                long now = System.currentTimeMillis();
-                double elapsed = (now - t0)/1000.0;
-                System.out.printf("Completed %d/%d trials (elapsed %.1fs)\n", t+1, TRIALS, elapsed);
+        if (shard != null) {
+            int[] results = new int[(int) shard[1]];
+            try (TrialRunner runner = new TrialRunner(threads);
+            		ProgressReporter progress = new ProgressReporter(shard[1])) {
+                runner.run(trial, seed, shard[0], shard[1], (t, tests) -> {
+                    results[(int) (t - shard[0])] = tests;
+                    add(stats, sketch, sampling, seed, t, tests);
+                    progress.update(t - shard[0] + 1, stats.getMean(), stats.halfWidth());
+                });
+            }
+            Path file = Paths.get(args.length > 7 ? args[7] :
+            		"hyperarmour-" + seed + "-" + shard[0] / shard[1] + ".shard");
+            new ShardFile(SCENARIO, seed, engine, strategy, sampling, shard[0], results).write(file);
+            System.out.println("\nWrote the results to " + file + ", merge them with ShardMerge");
+        } else {
+            try (TrialRunner runner = new TrialRunner(threads);
+            		ResultCache cache = ResultCache.open(SCENARIO, engine, strategy, sampling, seed);
+            		ProgressReporter progress = new ProgressReporter(trials)) {
+                if (cache.size() > 0)
+                    System.out.println("Reusing the " + cache.size() + " trials of this seed found in the result cache");
+                cache.run(runner, trial, seed, trials, (t, tests) -> {
+                    add(stats, sketch, sampling, seed, t, tests);
+                    progress.update(t + 1, stats.getMean(), stats.halfWidth());
+                }, () -> precision != null && precision.isReached(stats));
             }
         }
+        printResults(stats, sketch, strategy, t0);
+    }
+
+    /**Statistics of a run in the given sampling mode*/
+    static SamplingStats newStats(Sampling sampling) {
+        //the control is the fully disclosed hyperarmour system of Poise, for the order the trial meets the tiers in
+        double controlMean = sampling == Sampling.CONTROL ?
+        		Poise.computeComplexity(Poise.configure(HYPERARMOURS), Poise.configure(DAMAGES)) : 0.0;
+        return new SamplingStats(sampling, new int[0], controlMean);
+    }
+
+    /**Adds the result of trial t of masterSeed to stats and sketch*/
+    static void add(SamplingStats stats, QuantileSketch sketch, Sampling sampling, long masterSeed, long t, int tests) {
+        stats.add(t, tests, -1, sampling == Sampling.CONTROL ? controlVariate(sampling.streamFor(masterSeed, t)) : 0.0);
+        sketch.add(tests);
+    }
 
+    /**Prints the statistics of a run started at System.currentTimeMillis() t0*/
+    static void printResults(SamplingStats stats, QuantileSketch sketch, TestStrategy.Kind strategy, long t0) {
         // statistics
-        double mean = mean(results);
-        double std = stddev(results, mean);
-        double se = std / Math.sqrt(TRIALS);
-        double ciLower = mean - 2.58 * se;
-        double ciUpper = mean + 2.58 * se;
+        double mean = stats.getMean();
+        double std = stats.stddev();
+        double ciLower = mean - stats.halfWidth();
+        double ciUpper = mean + stats.halfWidth();
         double naive = (double) M * N;
 
         System.out.println("\nRESULTS");
+        System.out.printf("Trials = %d\n", stats.getCount());
         System.out.printf("Mean = %.3f\n", mean);
         System.out.printf("Std dev = %.3f\n", std);
         System.out.printf("99%% CI = [%.3f, %.3f]\n", ciLower, ciUpper);
+        System.out.printf("Tests per trial: %s\n", sketch);
+        System.out.printf("Effective sample size = %.0f (%.2fx the trials)\n", stats.effectiveSampleSize(),
+        		stats.effectiveSampleSize() / stats.getCount());
         System.out.printf("Theoretical complexity (M*N) = %.0f\n", naive);
+        if (strategy == TestStrategy.Kind.RANDOM)
+            System.out.printf("Exact expectation (HyperarmourSolver) = %.3f\n",
+            		HyperarmourSolver.expectedTests(HYPERARMOURS, DAMAGES));
         System.out.printf("Actual vs theoretical = %.3f%%\n",
                 100.0 * mean / naive);
         long t1 = System.currentTimeMillis();
         System.out.printf("Total runtime: %.1f s\n", (t1 - t0) / 1000.0);
+        if (Instrumentation.ENABLED)
+            System.out.println(Instrumentation.summary());
     }
     
     /** Run a single Monte Carlo trial: sample a hidden world, run tests until stopping condition */
-    static int runOneTrial() {
+    static int runOneTrial(SplittableRandom rnd, KnowledgeState.Engine engine) {
+        return runOneTrial(rnd, false, engine, TestStrategy.Kind.RANDOM);
+    }
+
+    /** Run a single Monte Carlo trial on the hidden world sampled by rnd, or on its mirror image */
+    static int runOneTrial(SplittableRandom rnd, boolean mirrored, KnowledgeState.Engine engine,
+    		TestStrategy.Kind strategy) {
+        return runOneTrial(HYPERARMOURS, DAMAGES, rnd, mirrored, engine, strategy);
+    }
+
+    /** Same as runOneTrial(rnd, mirrored, engine, strategy), for any hyperarmour and stance damage tiers.
+     * Runs on the TrialContext of the calling thread, so it allocates nothing once the thread ran a trial of the
+     * same tiers, engine and strategy */
+    static int runOneTrial(Stance[] hyperarmours, Stance[] damages, SplittableRandom rnd, boolean mirrored,
+    		KnowledgeState.Engine engine, TestStrategy.Kind strategy) {
+        Instrumentation.Probe probe = Instrumentation.ENABLED ?
+        		new Instrumentation.Probe("hyperarmour", engine, strategy) : null;
         //Prepare structures
-        int[] nodeValues = populateNodes(HYPERARMOURS, DAMAGES);
-        boolean[][] less = new boolean[TOTAL_NODES][TOTAL_NODES];
-        int[] characterIndices = IntStream.range(0, M).toArray();
-        int[] enemyIndices = IntStream.range(0, N).map(i -> M + i).toArray(); // enemy node indices M..M+N-1
+        TrialContext context = TrialContext.of(hyperarmours, damages, engine, strategy);
+        int m = context.hyperarmourValues.length;
+        populateNodes(hyperarmours, damages, rnd, mirrored, context.hyperarmourValues, context.damageValues);
+        double[] nodeValues = context.nodeValues;
+        for (int i = 0; i < m; i++)
+            nodeValues[i] = context.hyperarmourValues[i];
+        for (int i = 0; i < context.damageValues.length; i++)
+            nodeValues[m + i] = context.damageValues[i];
+        context.reset();
+        KnowledgeState less = context.less;
+        TestStrategy tester = context.tester;
         int testsPerformed = 0;
 
         //Outer loop: iterate through character attacks' values
-        for (int cIdx : characterIndices) {
-        	//reshuffle the order of enemy attacks for every new character attack tested
-        	if (cIdx > 0)
-        		shuffleArray(enemyIndices);
-
-            //For each enemy in random order
-            for (int eIdx : enemyIndices) {
-                //skip tests if this pair is already resolved
-                if (less[cIdx][eIdx] || less[eIdx][cIdx])
-                    continue;
-             
+        for (int cIdx = 0; cIdx < m; cIdx++) {
+        	tester.begin(cIdx, less, rnd);
+
+            //For each enemy the tester picks among the ones not resolved yet
+            for (int eIdx = tester.next(less, rnd); eIdx >= 0; eIdx = tester.next(less, rnd)) {
                 //perform the test
                 boolean tanks = nodeValues[eIdx] < nodeValues[cIdx];
                 testsPerformed++;
                 //Propagate the newly acquired knowledge
+                long clock = Instrumentation.ENABLED ? System.nanoTime() : 0L;
                 if (tanks)
-                    applyTransitiveClosure(less, eIdx, cIdx);
+                    less.applyTransitiveClosure(eIdx, cIdx);
                 else 
-                    applyTransitiveClosure(less, cIdx, eIdx);
+                    less.applyTransitiveClosure(cIdx, eIdx);
+                if (Instrumentation.ENABLED) {
+                    probe.closed(tanks ? eIdx : cIdx, tanks ? cIdx : eIdx, less, clock);
+                    clock = System.nanoTime();
+                }
 
-                if (isAttackFullyClassified(cIdx, less, M, N)) {
+                boolean classified = isAttackFullyClassified(cIdx, less);
+                if (Instrumentation.ENABLED)
+                    probe.checked(clock);
+                if (classified) {
                     break; // move to next player attack
                 }
             } // enemies loop
-            if (isAllResolved(less, M, N))
+            tester.end(cIdx, less);
+            long clock = Instrumentation.ENABLED ? System.nanoTime() : 0L;
+            boolean resolved = isAllResolved(less);
+            if (Instrumentation.ENABLED)
+                probe.checked(clock);
+            if (resolved)
                 break;
         } // player loop
+        if (Instrumentation.ENABLED)
+            probe.finished(testsPerformed);
         return testsPerformed;
     }
     
     /**Populates 0 to M nodes with the hyperarmours of M character attacks.
      * Populates M to M+N nodes with the stance damages of N enemy attacks*/
-    public static int[] populateNodes(Stance[] hyperarmours, Stance[] damages) {
+    public static int[] populateNodes(Stance[] hyperarmours, Stance[] damages, SplittableRandom rnd) {
+    	return populateNodes(hyperarmours, damages, rnd, false);
+    }
+
+    /**Same as populateNodes(hyperarmours, damages, rnd), but a mirrored world applies the very same shuffles
+     * to the values ordered descendingly: the lowest values take the place of the highest and vice versa*/
+    public static int[] populateNodes(Stance[] hyperarmours, Stance[] damages, SplittableRandom rnd, boolean mirrored) {
+    	int[] valuesOfHA = new int[count(hyperarmours)];
+    	int[] valuesOfD = new int[count(damages)];
+    	populateNodes(hyperarmours, damages, rnd, mirrored, valuesOfHA, valuesOfD);
+    	//Populate the nodes
+    	return IntStream.concat(Arrays.stream(valuesOfHA), Arrays.stream(valuesOfD)).toArray();
+    }
+
+    /**Same as populateNodes(hyperarmours, damages, rnd, mirrored), but the M hyperarmours and N stance damages are
+     * written into valuesOfHA and valuesOfD instead of new arrays, so that a trial can reuse them*/
+    static void populateNodes(Stance[] hyperarmours, Stance[] damages, SplittableRandom rnd, boolean mirrored,
+    		int[] valuesOfHA, int[] valuesOfD) {
     	//M hyperarmours, still ordered ascendingly
-    	int[] valuesOfHA = getValues(hyperarmours, M);
+    	fillValues(hyperarmours, valuesOfHA);
     	//N stanca damages, still ordered ascendingly
-    	int[] valuesOfD = getValues(damages, N);
+    	fillValues(damages, valuesOfD);
+    	if (mirrored) {
+    		reverse(valuesOfHA);
+    		reverse(valuesOfD);
+    	}
     	//randomise their orders
-    	shuffleArray(valuesOfHA);
-    	shuffleArray(valuesOfD);
-    	//Populate the nodes
-    	return IntStream.concat(Arrays.stream(valuesOfHA), Arrays.stream(valuesOfD)).toArray();
+    	shuffleArray(valuesOfHA, rnd);
+    	shuffleArray(valuesOfD, rnd);
     }
     
     /**Takes an array of hyperarmour or stance damage tiers and produces an array with as many 
@@ -120,73 +242,62 @@ public class MonteCarloHyperarmour {
      * returned for hyperarmours and an array of length N for stance damages*/
     public static int[] getValues(Stance[] stances, int total) {
     	int[] values = new int[total];
+    	fillValues(stances, values);
+    	return values;
+    }
+
+    /**Same as getValues(stances, values.length), into values*/
+    static void fillValues(Stance[] stances, int[] values) {
     	int idx = 0;
     	for (Stance s : stances) {
     		Arrays.fill(values, idx, idx + s.getCount(), s.getValue());
     		idx += s.getCount();
     	}
-    	return values;
     }
 
-    /**Fisher-Yates algorithm for shuffling*/
-    public static void shuffleArray(int[] arr) {
-        for (int i = arr.length - 1; i > 0; i--) {
-            int j = rnd.nextInt(i + 1);
+    /**# of armours, character attacks or enemy attacks over all the tiers*/
+    public static int count(Stance[] stances) {
+    	return Arrays.stream(stances).mapToInt(Stance::getCount).sum();
+    }
+
+    public static void reverse(int[] arr) {
+        for (int i = 0, j = arr.length - 1; i < j; i++, j--) {
             int tmp = arr[i];
             arr[i] = arr[j];
             arr[j] = tmp;
         }
     }
 
-    /** ∀j[(less(j,u) OR j = u) -> ∀k[(less(v,k) OR k = v) -> less(j,k)]]*/
-    public static void applyTransitiveClosure(boolean[][] less, int u, int v) {
-    	List<Integer> lesser = new ArrayList<>();
-    	List<Integer> greater = new ArrayList<>();
-    	lesser.add(u);
-    	greater.add(v);
-    	for (int j = 0; j < less.length; j++) {
-    		if (less[j][u])
-    			lesser.add(j);
-    		if (less[v][j])
-    			greater.add(j);
-    	}
-    	lesser.forEach(l -> greater.forEach(g -> less[l][g] = true));
-    }
-
-    /**∀i(i ∈ E -> less(cIdx, i) OR less(i, cIdx))*/
-    static boolean isAttackFullyClassified(int cIdx, boolean[][] less, int M, int N) {
-        int baseE = M;
-        for (int i = 0; i < N; i++) {
-            int eIdx = baseE + i;
-            if (!less[cIdx][eIdx] && !less[eIdx][cIdx]) return false;
-        }
-        return true;
+    /**Epistemic complexity of the fully disclosed hyperarmour system (see Poise) for the order in which the trial
+     * sampled by rnd meets the hyperarmour tiers. Character attacks are tested in node order and shuffled
+     * uniformly, so this order is distributed as a biased poise order: the expectation is
+     * Poise.computeComplexity(HYPERARMOURS, DAMAGES)*/
+    static double controlVariate(SplittableRandom rnd) {
+    	int[] nodeValues = populateNodes(HYPERARMOURS, DAMAGES, rnd);
+    	int[] order = IntStream.of(nodeValues).limit(M).distinct().toArray();
+    	List<Stance> hyperarmours = Poise.configure(HYPERARMOURS);
+    	hyperarmours.sort((h1, h2) -> Integer.compare(h1.getValue(), h2.getValue()));
+    	return Poise.complexityOf(order, hyperarmours, Poise.configure(DAMAGES));
     }
 
-    /** ∀i(i ∈ C -> ∀j(j ∈ E -> less(i,j) OR less(j,i))) */
-    static boolean isAllResolved(boolean[][] less, int M, int N) {
-        int baseE = M;
-        for (int c = 0; c < M; c++) {
-            for (int i = 0; i < N; i++) {
-                int eIdx = baseE + i;
-                if (!less[c][eIdx] && !less[eIdx][c]) 
-                	return false;
-            }
+    /**Fisher-Yates algorithm for shuffling*/
+    public static void shuffleArray(int[] arr, SplittableRandom rnd) {
+        for (int i = arr.length - 1; i > 0; i--) {
+            int j = rnd.nextInt(i + 1);
+            int tmp = arr[i];
+            arr[i] = arr[j];
+            arr[j] = tmp;
         }
-        return true;
     }
 
-   //simple statistics
-   public static double mean(double[] arr) {
-        double s = 0;
-        for (double v : arr) s += v;
-        return s / arr.length;
+    /**∀i(i ∈ E -> less(cIdx, i) OR less(i, cIdx))*/
+    static boolean isAttackFullyClassified(int cIdx, KnowledgeState less) {
+        return less.isResolved(cIdx);
     }
 
-    public static double stddev(double[] arr, double mean) {
-        double s = 0;
-        for (double v : arr) s += (v - mean) * (v - mean);
-        return Math.sqrt(s / (arr.length - 1));
+    /** ∀i(i ∈ C -> ∀j(j ∈ E -> less(i,j) OR less(j,i))) */
+    static boolean isAllResolved(KnowledgeState less) {
+        return less.isAllResolved();
     }
 }
 
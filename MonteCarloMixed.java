@@ -1,14 +1,17 @@
 package soulsestimations;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
-import java.util.Random;
-import java.util.stream.IntStream;
+import java.util.List;
+import java.util.SplittableRandom;
 
 import soulsestimations.Poise.Stance;
 
 public class MonteCarloMixed {
     //Configuration
     static final int TRIALS = 200; //# of Monte Carlo runs
+    static final long MAX_TRIALS = 100_000; //# of Monte Carlo runs at most, when they stop on a target precision
     //6 armours with 0 poise, 7 armours with 10 poise, 10 armours with 10 poise etc.
     static final Stance[] POISES = {new Stance(0, 6), new Stance(10, 7), new Stance(20, 10), new Stance(30, 13), new Stance(40, 8), 
     		new Stance(50, 4), new Stance(60, 2)};
@@ -26,107 +29,247 @@ public class MonteCarloMixed {
     //Derived totals
     static final int POISE_MODIFIED_ATTACK_NODES = L * M;
     static final int TOTAL_NODES = POISE_MODIFIED_ATTACK_NODES + N;
+    //weights of the poise tiers in the biased order, and of the strata of stratified sampling
+    static final int[] POISE_WEIGHTS = Arrays.stream(POISES).mapToInt(Stance::getCount).toArray();
+    //the configuration above, as the result cache and shard files know it
+    static final Scenario SCENARIO = new Scenario("mixed", POISES, HYPERARMOURS, DAMAGES);
 
-    static final Random rnd = new Random();
-
+    /**Optional arguments: [master seed] [worker threads] [engine: matrix, intervals, product, offheap or lazy]
+     * [99% CI half-width to stop at, e.g. 0.5 or 1%, or - for TRIALS trials]
+     * [sampling: plain, antithetic, stratified or control] [tester: random, median or information]
+     * [shard k:S, to run trials k·S to (k+1)·S - 1 only and write their results for ShardMerge]
+     * [shard file, by default mixed-<seed>-<k>.shard]*/
     public static void main(String[] args) {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : System.nanoTime();
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        KnowledgeState.Engine engine = args.length > 2 ? KnowledgeState.Engine.valueOf(args[2].toUpperCase()) :
+        		KnowledgeState.Engine.MATRIX;
+        Precision precision = args.length > 3 ? Precision.parse(args[3]) : null;
+        long trials = precision == null ? TRIALS : MAX_TRIALS;
+        Sampling sampling = args.length > 4 ? Sampling.valueOf(args[4].toUpperCase()) : Sampling.PLAIN;
+        TestStrategy.Kind strategy = args.length > 5 ? TestStrategy.Kind.valueOf(args[5].toUpperCase()) :
+        		TestStrategy.Kind.RANDOM;
+        long[] shard = args.length > 6 ? ShardFile.range(args[6], precision, sampling) : null;
         System.out.printf("Monte Carlo Poise × Hyperarmour, " + 
-        		"with %d poise tiers, %d charachter attacks, %d enemy attacks. Trials: %d%n", L, M, N, TRIALS);
+        		"with %d poise tiers, %d charachter attacks, %d enemy attacks. Trials: %s%n", L, M, N,
+        		shard != null ? shard[0] + " to " + (shard[0] + shard[1] - 1) + " only" :
+        		precision == null ? TRIALS : "up to " + MAX_TRIALS + ", until the 99% CI is " + precision);
+        System.out.printf("Master seed %d, %d worker threads, %s engine, %s sampling, %s tester%n", seed, threads, engine,
+        		sampling, strategy);
         System.out.println();
-        double[] results = new double[TRIALS];
+        QuantileSketch sketch = new QuantileSketch();
+        SamplingStats stats = newStats(sampling);
+        TrialRunner.Trial trial = (t, rnd) -> runOneTrial(sampling.streamFor(seed, t), sampling.isMirrored(t),
+        		sampling.stratum(t, POISE_WEIGHTS), engine, strategy);
         long t0 = System.currentTimeMillis();
-        for (int t = 0; t < TRIALS; t++) {
-            results[t] = runOneTrial();
-            if ((t + 1) % 10 == 0 || t == TRIALS - 1) {
-                long now = System.currentTimeMillis();
-                double elapsed = (now - t0) / 1000.0;
-                System.out.printf("Completed %d/%d trials (elapsed %.1fs), mean: %f%n", 
-                		t + 1, TRIALS, elapsed, MonteCarloHyperarmour.mean(Arrays.copyOfRange(results, 0, t)));
+        if (shard != null) {
+            int[] results = new int[(int) shard[1]];
+            try (TrialRunner runner = new TrialRunner(threads);
+            		ProgressReporter progress = new ProgressReporter(shard[1])) {
+                runner.run(trial, seed, shard[0], shard[1], (t, tests) -> {
+                    results[(int) (t - shard[0])] = tests;
+                    add(stats, sketch, sampling, seed, t, tests);
+                    progress.update(t - shard[0] + 1, stats.getMean(), stats.halfWidth());
+                });
+            }
+            Path file = Paths.get(args.length > 7 ? args[7] : "mixed-" + seed + "-" + shard[0] / shard[1] + ".shard");
+            new ShardFile(SCENARIO, seed, engine, strategy, sampling, shard[0], results).write(file);
+            System.out.printf("%nWrote the results to %s, merge them with ShardMerge%n", file);
+        } else {
+            try (TrialRunner runner = new TrialRunner(threads);
+            		ResultCache cache = ResultCache.open(SCENARIO, engine, strategy, sampling, seed);
+            		ProgressReporter progress = new ProgressReporter(trials)) {
+                if (cache.size() > 0)
+                    System.out.printf("Reusing the %d trials of this seed found in the result cache%n", cache.size());
+                cache.run(runner, trial, seed, trials, (t, tests) -> {
+                    add(stats, sketch, sampling, seed, t, tests);
+                    progress.update(t + 1, stats.getMean(), stats.halfWidth());
+                }, () -> precision != null && precision.isReached(stats));
             }
         }
+        printResults(stats, sketch, t0);
+    }
+
+    /**Statistics of a run in the given sampling mode*/
+    static SamplingStats newStats(Sampling sampling) {
+        //the control is the poise-only complexity of Poise, for the trial's poise order
+        double controlMean = sampling == Sampling.CONTROL ?
+        		Poise.computeComplexity(Poise.configure(POISES), Poise.configure(DAMAGES)) : 0.0;
+        return new SamplingStats(sampling, POISE_WEIGHTS, controlMean);
+    }
 
-        double mean = MonteCarloHyperarmour.mean(results);
-        double std = MonteCarloHyperarmour.stddev(results, mean);
-        double se = std / Math.sqrt(TRIALS);
-        double ciLo = mean - 2.58 * se;
-        double ciHi = mean + 2.58 * se;
+    /**Adds the result of trial t of masterSeed to stats and sketch*/
+    static void add(SamplingStats stats, QuantileSketch sketch, Sampling sampling, long masterSeed, long t, int tests) {
+        stats.add(t, tests, sampling.stratum(t, POISE_WEIGHTS),
+        		sampling == Sampling.CONTROL ? controlVariate(sampling.streamFor(masterSeed, t)) : 0.0);
+        sketch.add(tests);
+    }
+
+    /**Prints the statistics of a run started at System.currentTimeMillis() t0*/
+    static void printResults(SamplingStats stats, QuantileSketch sketch, long t0) {
+        double mean = stats.getMean();
+        double std = stats.stddev();
+        double ciLo = mean - stats.halfWidth();
+        double ciHi = mean + stats.halfWidth();
         double naive = (double) L * M * N;
 
         System.out.println("\nRESULTS");
+        System.out.printf("Trials = %d%n", stats.getCount());
         System.out.printf("Mean = %.3f%n", mean);
         System.out.printf("Std dev = %.3f%n", std);
         System.out.printf("99%% CI = [%.3f, %.3f]%n", ciLo, ciHi);
-        System.out.printf("Naive (L*M*N) = %d%n", naive);
-        System.out.printf("Reduction vs naive = %.3f%%", 
+        System.out.printf("Tests per trial: %s%n", sketch);
+        System.out.printf("Effective sample size = %.0f (%.2fx the trials)%n", stats.effectiveSampleSize(),
+        		stats.effectiveSampleSize() / stats.getCount());
+        System.out.printf("Naive (L*M*N) = %.0f%n", naive);
+        System.out.printf("Reduction vs naive = %.3f%%%n", 
         		100.0 * mean / naive);
         long t1 = System.currentTimeMillis();
         System.out.printf("Total runtime: %.1f s%n", (t1 - t0) / 1000.0);
+        if (Instrumentation.ENABLED)
+            System.out.println(Instrumentation.summary());
     }
     
     /** Run a single trial */
-    static int runOneTrial() {
+    static int runOneTrial(SplittableRandom rnd, KnowledgeState.Engine engine) {
+        return runOneTrial(rnd, false, -1, engine, TestStrategy.Kind.RANDOM);
+    }
+
+    /** Run a single trial on the hidden world sampled by rnd, or on its mirror image, with the given first poise
+     * tier (an index in POISES), or a random one if -1 */
+    static int runOneTrial(SplittableRandom rnd, boolean mirrored, int firstTier, KnowledgeState.Engine engine,
+    		TestStrategy.Kind strategy) {
+        return runOneTrial(POISES, HYPERARMOURS, DAMAGES, rnd, mirrored, firstTier, engine, strategy);
+    }
+
+    /** Same as runOneTrial(rnd, mirrored, firstTier, engine, strategy), for any poise, hyperarmour and stance damage
+     * tiers. Runs on the TrialContext of the calling thread, so it allocates nothing once the thread ran a trial of
+     * the same tiers, engine and strategy */
+    static int runOneTrial(Stance[] poises, Stance[] hyperarmours, Stance[] damages, SplittableRandom rnd,
+    		boolean mirrored, int firstTier, KnowledgeState.Engine engine, TestStrategy.Kind strategy) {
+        Instrumentation.Probe probe = Instrumentation.ENABLED ? new Instrumentation.Probe("mixed", engine, strategy) : null;
         //Prepare structures 
-        double[] nodeValues = populateNodes(POISES, HYPERARMOURS, DAMAGES);
-        boolean[][] less = new boolean[TOTAL_NODES][TOTAL_NODES];
-        int[] poiseIndices = IntStream.range(0,  L).toArray();
-        int[] characterIndices = IntStream.range(0, M).toArray();
-        int[] enemyIndices = IntStream.range(0, N).map(idx -> L*M + idx).toArray();
-        int testsPerformed = 0;
+        TrialContext context = TrialContext.of(poises, hyperarmours, damages, engine, strategy);
+        int L = poises.length;
+        int M = context.hyperarmourValues.length;
+        double[] nodeValues = context.nodeValues;
+        populateNodes(poises, hyperarmours, damages, rnd, mirrored, firstTier, context.poiseOrder, context.poiseWeights,
+        		context.hyperarmourValues, context.damageValues, nodeValues);
+        context.reset();
+        int[] position = context.position;
+        Arrays.fill(position, 0);
+        runFrom(context.less, context.tester, nodeValues, L, M, rnd, position, Integer.MAX_VALUE, probe);
+        if (Instrumentation.ENABLED)
+            probe.finished(position[2]);
+        return position[2];
+    }
+
+    /** The loop of runOneTrial, from the character attack at position = {pIdx, cIdx, testsPerformed} on, less and
+     * tester holding what the trial found out before it. Pauses before starting a character attack once pauseAt tests
+     * were performed, leaving where it is in position for a later call to go on from: the tester is then between two
+     * character attacks, where its state is what it saves (see TrialSnapshot). Returns whether the trial is over,
+     * position then holding the tests it took */
+    static boolean runFrom(KnowledgeState less, TestStrategy tester, double[] nodeValues, int L, int M,
+    		SplittableRandom rnd, int[] position, int pauseAt, Instrumentation.Probe probe) {
+        int testsPerformed = position[2];
         
         //Outer loop: iterate poise tiers in biased order
-        for (int pIdx : poiseIndices) {
-            //Iterate character attacks in fixed characterIndices
-            for (int cIdx : characterIndices) {
+        for (int pIdx = position[0]; pIdx < L; pIdx++) {
+            //Iterate character attacks in node order
+            for (int cIdx = pIdx == position[0] ? position[1] : 0; cIdx < M; cIdx++) {
             	//global index for poise-modified character attack
                 int playerNode = M * pIdx + cIdx;
+                if (testsPerformed >= pauseAt) {
+                    position[0] = pIdx;
+                    position[1] = cIdx;
+                    position[2] = testsPerformed;
+                    return false;
+                }
 
-                //reshuffle enemy attacks for every new poise-modified character attack test run
-                if(cIdx > 0 || pIdx > 0) 
-                	MonteCarloHyperarmour.shuffleArray(enemyIndices);
-
-                //iterate enemy attacks
-                for (int eIdx : enemyIndices) {
-                    //if already deduced skip
-                    if (less[playerNode][eIdx] || less[eIdx][playerNode])
-                        continue;
+                tester.begin(playerNode, less, rnd);
 
+                //iterate the enemy attacks the tester picks among the ones not deduced yet
+                for (int eIdx = tester.next(less, rnd); eIdx >= 0; eIdx = tester.next(less, rnd)) {
                     //perform observation
                     boolean tanks = nodeValues[eIdx] < nodeValues[playerNode];
                     testsPerformed++;
                     
                      //TransitiveClosure(less, u, v) = ∀j((less(j,u) OR j = u) -> ∀k((less(v,k) OR k = v) -> less(j,k)))
+                    long clock = Instrumentation.ENABLED ? System.nanoTime() : 0L;
                     if (tanks)
-                        MonteCarloHyperarmour.applyTransitiveClosure(less, eIdx, playerNode);
+                        less.applyTransitiveClosure(eIdx, playerNode);
                     else 
-                        MonteCarloHyperarmour.applyTransitiveClosure(less, playerNode, eIdx);
+                        less.applyTransitiveClosure(playerNode, eIdx);
+                    if (Instrumentation.ENABLED) {
+                        probe.closed(tanks ? eIdx : playerNode, tanks ? playerNode : eIdx, less, clock);
+                        clock = System.nanoTime();
+                    }
                     
-                    if (isAttackFullyClassified(playerNode, less))
+                    boolean classified = isAttackFullyClassified(playerNode, less);
+                    if (Instrumentation.ENABLED)
+                        probe.checked(clock);
+                    if (classified)
                         break;
                 } //enemy attacks loop
-                if (isPoiseTierFullyClassified(pIdx, less))
+                tester.end(playerNode, less);
+                long clock = Instrumentation.ENABLED ? System.nanoTime() : 0L;
+                boolean tierResolved = isPoiseTierFullyClassified(pIdx, less);
+                if (Instrumentation.ENABLED)
+                    probe.checked(clock);
+                if (tierResolved)
                     break;
             } //character attacks loop
-            if (isAllResolved(less))
+            long clock = Instrumentation.ENABLED ? System.nanoTime() : 0L;
+            boolean resolved = isAllResolved(less);
+            if (Instrumentation.ENABLED)
+                probe.checked(clock);
+            if (resolved)
                 break;
         } //poises loop
-        return testsPerformed;
+        position[2] = testsPerformed;
+        return true;
     }
     
     /**Populates 0 to L*M nodes with the poise-modified hyperarmours of M character attacks.
      * Populates L*M to L*M+N nodes with the stance damages dealt by N enemy attacks*/
-    static double[] populateNodes(Stance[] poises, Stance[] hyperarmours, Stance[] damages) {
+    static double[] populateNodes(Stance[] poises, Stance[] hyperarmours, Stance[] damages, SplittableRandom rnd) {
+    	return populateNodes(poises, hyperarmours, damages, rnd, false, -1);
+    }
+
+    /**Same as populateNodes(poises, hyperarmours, damages, rnd), but a mirrored world applies the very same shuffles
+     * to the values ordered descendingly and draws the poise order from the complementary uniforms;
+     * firstTier, if not -1, is the index in poises of the first tier of the poise order*/
+    static double[] populateNodes(Stance[] poises, Stance[] hyperarmours, Stance[] damages, SplittableRandom rnd,
+    		boolean mirrored, int firstTier) {
+    	int[] haValues = new int[MonteCarloHyperarmour.count(hyperarmours)];
+    	int[] dValues = new int[MonteCarloHyperarmour.count(damages)];
+    	double[] nodes = new double[poises.length * haValues.length + dValues.length];
+    	populateNodes(poises, hyperarmours, damages, rnd, mirrored, firstTier, new int[poises.length],
+    			new int[poises.length], haValues, dValues, nodes);
+    	return nodes;
+    }
+
+    /**Same as populateNodes(poises, hyperarmours, damages, rnd, mirrored, firstTier), into nodes, drawing the poise
+     * order into randomPValues with weights, and the hyperarmours and stance damages into haValues and dValues,
+     * so that a trial can reuse all of them*/
+    static void populateNodes(Stance[] poises, Stance[] hyperarmours, Stance[] damages, SplittableRandom rnd,
+    		boolean mirrored, int firstTier, int[] randomPValues, int[] weights, int[] haValues, int[] dValues,
+    		double[] nodes) {
     	//One of the L! possible permutations of poises, biased by how many armours grant each poise
-    	int[] randomPValues = getBiasedPoiseOrder(poises);
+    	getBiasedPoiseOrder(poises, rnd, mirrored, firstTier, randomPValues, weights);
     	//M hyperarmours, still ordered ascendingly
-    	int[] haValues = MonteCarloHyperarmour.getValues(hyperarmours, M);
+    	MonteCarloHyperarmour.fillValues(hyperarmours, haValues);
     	//N stance damages, still ordered ascendingly
-    	int[] dValues = MonteCarloHyperarmour.getValues(damages, N);
+    	MonteCarloHyperarmour.fillValues(damages, dValues);
+    	if (mirrored) {
+    		MonteCarloHyperarmour.reverse(haValues);
+    		MonteCarloHyperarmour.reverse(dValues);
+    	}
     	//randomise the hyperarmour and stance damage orders
-    	MonteCarloHyperarmour.shuffleArray(haValues);
-    	MonteCarloHyperarmour.shuffleArray(dValues);
+    	MonteCarloHyperarmour.shuffleArray(haValues, rnd);
+    	MonteCarloHyperarmour.shuffleArray(dValues, rnd);
     	//Set the first L*M nodes with poise-modified hyperarmours
     	int idx = 0;
-    	double[] nodes = new double[TOTAL_NODES];
     	for (int p : randomPValues) {
     		for (int h : haValues)
     			nodes[idx++] = (double) h * (1.0 + (double) p/100.0);
@@ -134,19 +277,42 @@ public class MonteCarloMixed {
     	//Set the remaining nodes
     	for (int d : dValues)
     		nodes[idx++] = (double) d;
-    	return nodes;
     }
 
     /** Weighted sampling without replacement to produce a biased permutation of poise tiers */
-    static int[] getBiasedPoiseOrder(Stance[] poises) {
-    	int[] order = new int[L];
-    	int[] weights = Arrays.stream(poises).mapToInt(Stance::getCount).toArray();
-    	int remainingTotal = Arrays.stream(weights).sum();
+    static int[] getBiasedPoiseOrder(Stance[] poises, SplittableRandom rnd) {
+    	return getBiasedPoiseOrder(poises, rnd, false, -1);
+    }
+
+    /** Same as getBiasedPoiseOrder(poises, rnd), drawing 1 - u instead of every uniform u if mirrored,
+     * and starting from poises[firstTier] unless it is -1 */
+    static int[] getBiasedPoiseOrder(Stance[] poises, SplittableRandom rnd, boolean mirrored, int firstTier) {
+    	int[] order = new int[poises.length];
+    	getBiasedPoiseOrder(poises, rnd, mirrored, firstTier, order, new int[poises.length]);
+    	return order;
+    }
 
-    	for (int i = 0; i < L; i++) {
-    		int draw = (int) (rnd.nextDouble() * remainingTotal);
+    /**Same as getBiasedPoiseOrder(poises, rnd, mirrored, firstTier), into order, weights being overwritten with
+     * what's left of the weights of the tiers as they're drawn*/
+    static void getBiasedPoiseOrder(Stance[] poises, SplittableRandom rnd, boolean mirrored, int firstTier,
+    		int[] order, int[] weights) {
+    	int remainingTotal = 0;
+    	for (int j = 0; j < poises.length; j++) {
+    		weights[j] = poises[j].getCount();
+    		remainingTotal += weights[j];
+    	}
+    	int first = 0;
+    	if (firstTier >= 0) {
+    		order[first++] = poises[firstTier].getValue();
+    		remainingTotal -= weights[firstTier];
+    		weights[firstTier] = 0;
+    	}
+
+    	for (int i = first; i < poises.length; i++) {
+    		double u = mirrored ? 1.0 - rnd.nextDouble() : rnd.nextDouble();
+    		int draw = Math.min((int) (u * remainingTotal), remainingTotal - 1);
     		int cumulative = 0;
-    		for (int j = 0; j < L; j++) {
+    		for (int j = 0; j < poises.length; j++) {
     			cumulative += weights[j];
     			if (draw < cumulative) {
     				order[i] = poises[j].getValue();
@@ -156,41 +322,29 @@ public class MonteCarloMixed {
     			}
     		}
     	}
-    	return order;
+    }
+
+    /**Epistemic complexity of the poise tiers alone (see Poise) for the poise order of the trial sampled by rnd.
+     * Its expectation is Poise.computeComplexity(POISES, DAMAGES)*/
+    static double controlVariate(SplittableRandom rnd) {
+    	List<Stance> poises = Poise.configure(POISES);
+    	poises.sort((p1, p2) -> Integer.compare(p1.getValue(), p2.getValue()));
+    	return Poise.complexityOf(getBiasedPoiseOrder(POISES, rnd), poises, Poise.configure(DAMAGES));
     }
 
     /** Check whether a poise-modified character attack is fully classified vs all enemy attacks */
-    static boolean isAttackFullyClassified(int playerNode, boolean[][] less) {
-        int baseE = POISE_MODIFIED_ATTACK_NODES;
-        for (int e = 0; e < N; e++) {
-            int eNode = baseE + e;
-            if (!less[playerNode][eNode] && !less[eNode][playerNode]) 
-            	return false;
-        }
-        return true;
+    static boolean isAttackFullyClassified(int playerNode, KnowledgeState less) {
+        return less.isResolved(playerNode);
     }
 
     /** Check whether all character attacks modified by a given poise tier are fully classified */
-    static boolean isPoiseTierFullyClassified(int poiseTier, boolean[][] less) {
-        int base = poiseTier * M;
-        for (int a = 0; a < M; a++) {
-            if (!isAttackFullyClassified(base + a, less)) 
-            	return false;
-        }
-        return true;
+    static boolean isPoiseTierFullyClassified(int poiseTier, KnowledgeState less) {
+        return less.isGroupResolved(poiseTier);
     }
 
     /** ∀i(i ∈ PxH -> ∀j(j ∈ E -> less(i,j) OR less(j,i))) */
-    static boolean isAllResolved(boolean[][] less) {
-        int baseE = POISE_MODIFIED_ATTACK_NODES;
-        for (int aNode = 0; aNode < baseE; aNode++) {
-            for (int e = 0; e < N; e++) {
-                int eNode = baseE + e;
-                if (!less[aNode][eNode] && !less[eNode][aNode]) 
-                	return false;
-            }
-        }
-        return true;
+    static boolean isAllResolved(KnowledgeState less) {
+        return less.isAllResolved();
     }
 
 }
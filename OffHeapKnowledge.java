@@ -0,0 +1,281 @@
+package soulsestimations;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**The bit-packed matrix of KnowledgeMatrix in a single buffer outside the heap: a direct buffer, or a file mapped in
+ * memory, so that its 2(C+N)^2 bits don't weigh on the garbage collector and a trial can be saved mid-run.
+ * The buffer holds a header of ints, {MAGIC, C, N, group size, cursor, the cursor of every group}, then the rows and
+ * the columns of the matrix as little-endian 64-bit words: it is the whole state, so the file of a mapped state,
+ * copied by snapshot, is a snapshot of it. fork maps a snapshot copy-on-write, so any # of states forked from the same
+ * prefix of observations share its pages until they write to them, and only the pages a continuation changes are
+ * copied; TrialFork forks the continuations of a trial of MonteCarloMixed that way. A buffer holds at most 2 GB,
+ * about 92,000 nodes; it's freed, or unmapped, once the state is garbage collected*/
+public class OffHeapKnowledge implements KnowledgeState {
+    private static final int MAGIC = 0x4841534B;
+    private static final int HEADER_INTS = 5;
+
+    private final ByteBuffer data;
+    //the file data maps for writing, null for a direct buffer or a fork
+    private final Path file;
+    //the rows, then the columns: rows[j] at j * words, cols[k] at (nodes + k) * words
+    private final LongBuffer matrix;
+    private final int nodes;
+    private final int words;
+    private final int characters;
+    private final int groupSize;
+    private final int groups;
+    //scratch rows holding the lesser and greater sets of the closure being applied, and the row and column of the
+    //character node being checked
+    private final long[] lesser;
+    private final long[] greater;
+    private final long[] row;
+    private final long[] col;
+    //bits of the enemy nodes, all of which lie in words firstEnemyWord to words
+    private final long[] enemyMask;
+    private final int firstEnemyWord;
+    //see lastClosure()
+    private final int[] last = Instrumentation.ENABLED ? new int[3] : null;
+
+    /**An empty matrix in a direct buffer*/
+    public OffHeapKnowledge(int characters, int enemies, int groupSize) {
+        this(ByteBuffer.allocateDirect(checkedSize(characters, enemies, groupSize)), null, characters, enemies,
+        		groupSize);
+        clear();
+    }
+
+    private OffHeapKnowledge(ByteBuffer data, Path file, int characters, int enemies, int groupSize) {
+        this.data = data.order(ByteOrder.LITTLE_ENDIAN);
+        this.file = file;
+        this.nodes = characters + enemies;
+        this.words = (nodes + 63) >>> 6;
+        this.characters = characters;
+        this.groupSize = groupSize;
+        this.groups = characters / groupSize;
+        this.matrix = data.position(headerSize(groups)).slice().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+        data.clear();
+        this.lesser = new long[words];
+        this.greater = new long[words];
+        this.row = new long[words];
+        this.col = new long[words];
+        this.enemyMask = new long[words];
+        for (int e = characters; e < nodes; e++)
+            enemyMask[e >>> 6] |= 1L << e;
+        this.firstEnemyWord = characters >>> 6;
+    }
+
+    /**An empty matrix mapped from file, created or overwritten*/
+    public static OffHeapKnowledge mapped(Path file, int characters, int enemies, int groupSize) {
+        int size = checkedSize(characters, enemies, groupSize);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        		StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            OffHeapKnowledge state = new OffHeapKnowledge(channel.map(FileChannel.MapMode.READ_WRITE, 0, size), file,
+            		characters, enemies, groupSize);
+            state.clear();
+            return state;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't map " + file, e);
+        }
+    }
+
+    /**The state saved in file, mapped copy-on-write: the file and the other forks of it never see its changes*/
+    public static OffHeapKnowledge fork(Path file) {
+        //a private mapping takes a channel open for writing, though it never writes to the file
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (channel.size() < HEADER_INTS * Integer.BYTES)
+                throw new IllegalArgumentException(file + " isn't a knowledge state");
+            ByteBuffer data = channel.map(FileChannel.MapMode.PRIVATE, 0, channel.size());
+            data.order(ByteOrder.LITTLE_ENDIAN);
+            int characters = data.getInt(Integer.BYTES);
+            int enemies = data.getInt(2 * Integer.BYTES);
+            int groupSize = data.getInt(3 * Integer.BYTES);
+            if (data.getInt(0) != MAGIC || characters < 0 || enemies < 0 || groupSize < 1 ||
+            		characters % groupSize != 0 || channel.size() != size(characters, enemies, groupSize))
+                throw new IllegalArgumentException(file + " isn't a knowledge state");
+            return new OffHeapKnowledge(data, null, characters, enemies, groupSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't map " + file, e);
+        }
+    }
+
+    /**Saves the state as of the last closure to target, for fork: the mapping is forced to its file, which is copied
+     * to a temporary file next to target, then renamed, so that a snapshot is either whole or missing. Only a state
+     * made by mapped has a file to copy.
+     * The force writes back every page dirtied since the last one and the copy reads the whole file again, where
+     * writing the buffer out would touch each page once; in exchange the copy is left to the file system, which
+     * may clone the file rather than copy it, and the mapping is never read through from the heap*/
+    public void snapshot(Path target) {
+        if (file == null)
+            throw new IllegalStateException("Only a mapped knowledge state can be saved");
+        ((MappedByteBuffer) data).force();
+        Path partial = target.resolveSibling(target.getFileName() + ".partial");
+        try {
+            Files.copy(file, partial, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't copy " + file + " to " + target, e);
+        }
+    }
+
+    public int size() {
+        return nodes;
+    }
+
+    /**# of enemy nodes e for which neither less(c, e) nor less(e, c) is known.
+     * Costs enemies/64 word operations, however many tests were performed*/
+    @Override
+    public int unresolvedEnemies(int c) {
+        matrix.get(c * words, row);
+        matrix.get((nodes + c) * words, col);
+        int resolved = 0;
+        for (int w = firstEnemyWord; w < words; w++)
+            resolved += Long.bitCount((row[w] | col[w]) & enemyMask[w]);
+        return nodes - characters - resolved;
+    }
+
+    /**Stops at the first word holding an unresolved enemy node*/
+    @Override
+    public boolean isResolved(int c) {
+        matrix.get(c * words, row);
+        matrix.get((nodes + c) * words, col);
+        return !BitRows.anyMissing(row, col, enemyMask, firstEnemyWord, words);
+    }
+
+    /**∀i(i ∈ G -> ∀j(j ∈ E -> less(i,j) OR less(j,i))), G being the character nodes of group g*/
+    @Override
+    public boolean isGroupResolved(int g) {
+        int end = (g + 1) * groupSize;
+        int cursor = data.getInt(cursorOffset(g));
+        while (cursor < end && isResolved(cursor))
+            cursor++;
+        data.putInt(cursorOffset(g), cursor);
+        return cursor == end;
+    }
+
+    /**∀i(i ∈ C -> ∀j(j ∈ E -> less(i,j) OR less(j,i)))*/
+    @Override
+    public boolean isAllResolved() {
+        int cursor = data.getInt(cursorOffset(-1));
+        while (cursor < characters && isResolved(cursor))
+            cursor++;
+        data.putInt(cursorOffset(-1), cursor);
+        return cursor == characters;
+    }
+
+    /**less(a, b)*/
+    @Override
+    public boolean get(int a, int b) {
+        return (matrix.get(a * words + (b >>> 6)) & (1L << b)) != 0;
+    }
+
+    /** ∀j[(less(j,u) OR j = u) -> ∀k[(less(v,k) OR k = v) -> less(j,k)]]
+     * As in KnowledgeMatrix, the greater set is OR-ed into the row of every lesser node and the lesser set into the
+     * column of every greater node, a word at a time in place: the buffer does so faster than copying each row out
+     * and back, which costs as much as the OR for the few words of a row*/
+    @Override
+    public void applyTransitiveClosure(int u, int v) {
+        //the matrix is kept closed, so everything less(u, v) implies is already there
+        if (get(u, v)) {
+            if (Instrumentation.ENABLED)
+                Arrays.fill(last, 0);
+            return;
+        }
+        matrix.get((nodes + u) * words, lesser);
+        matrix.get(v * words, greater);
+        lesser[u >>> 6] |= 1L << u;
+        greater[v >>> 6] |= 1L << v;
+        if (Instrumentation.ENABLED) {
+            last[0] = bitCount(lesser);
+            last[1] = bitCount(greater);
+            last[2] = 0;
+        }
+        for (int w = 0; w < words; w++) {
+            for (long bits = lesser[w]; bits != 0; bits &= bits - 1) {
+                int index = ((w << 6) + Long.numberOfTrailingZeros(bits)) * words;
+                for (int x = 0; x < words; x++) {
+                    long word = matrix.get(index + x);
+                    if (Instrumentation.ENABLED)
+                        last[2] += Long.bitCount(greater[x] & ~word);
+                    matrix.put(index + x, word | greater[x]);
+                }
+            }
+        }
+        for (int w = 0; w < words; w++) {
+            for (long bits = greater[w]; bits != 0; bits &= bits - 1) {
+                int index = (nodes + (w << 6) + Long.numberOfTrailingZeros(bits)) * words;
+                for (int x = 0; x < words; x++)
+                    matrix.put(index + x, matrix.get(index + x) | lesser[x]);
+            }
+        }
+    }
+
+    @Override
+    public int[] lastClosure() {
+        return last;
+    }
+
+    /**Forgets every relation, so the matrix can be reused for another trial*/
+    @Override
+    public void clear() {
+        data.putInt(0, MAGIC);
+        data.putInt(Integer.BYTES, characters);
+        data.putInt(2 * Integer.BYTES, nodes - characters);
+        data.putInt(3 * Integer.BYTES, groupSize);
+        data.putInt(cursorOffset(-1), 0);
+        for (int g = 0; g < groups; g++)
+            data.putInt(cursorOffset(g), g * groupSize);
+        Arrays.fill(row, 0L);
+        for (int i = 0; i < 2 * nodes; i++)
+            matrix.put(i * words, row);
+    }
+
+    /**Same as clear(): the matrix doesn't depend on the values*/
+    @Override
+    public void reset(double[] values) {
+        clear();
+    }
+
+    /**Byte offset of the cursor of group g, or of the first character node that may still be unresolved for -1*/
+    private static int cursorOffset(int g) {
+        return (HEADER_INTS + g) * Integer.BYTES;
+    }
+
+    private static int headerSize(int groups) {
+        return ((HEADER_INTS + groups) * Integer.BYTES + Long.BYTES - 1) / Long.BYTES * Long.BYTES;
+    }
+
+    /**Bytes of the buffer*/
+    private static long size(int characters, int enemies, int groupSize) {
+        long nodes = (long) characters + enemies;
+        return headerSize(characters / groupSize) + 2 * nodes * ((nodes + 63) >>> 6) * Long.BYTES;
+    }
+
+    private static int checkedSize(int characters, int enemies, int groupSize) {
+        if (groupSize < 1 || characters % groupSize != 0)
+            throw new IllegalArgumentException(characters + " character nodes can't be split in groups of " +
+            		groupSize);
+        long size = size(characters, enemies, groupSize);
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException((characters + enemies) + " nodes take " + size +
+            		" bytes, more than a buffer holds");
+        return (int) size;
+    }
+
+    private static int bitCount(long[] set) {
+        int count = 0;
+        for (long word : set)
+            count += Long.bitCount(word);
+        return count;
+    }
+
+}
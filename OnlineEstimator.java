@@ -0,0 +1,430 @@
+package soulsestimations;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import soulsestimations.Poise.Stance;
+
+/**The knowledge state of a trial, fed with real observations instead of a sampled world: a tester records "character
+ * attack c tanks enemy attack e" or "c is staggered by e" one at a time, in any order, and asks which pair to test
+ * next, how many pairs are still unresolved and how many tests are likely left.
+ * Every observation is applied by the transitive closure of a KnowledgeMatrix, the only engine that doesn't read the
+ * hidden values, and the answers are brought up to date right away, so a query only reads them back.
+ * As in the trial loops, the tester picks the enemy attacks for one character attack at a time, the first one in node
+ * order that isn't resolved yet.
+ * The estimate knows the tiers, not the values: a character attack falls in one of D+1 classes, by the # of stance
+ * damage tiers below it, and a resolved one of class q splits the enemy attacks between damage tiers q-1 and q.
+ * The character attacks no observation involved are costed by HyperarmourSolver, from the splits made so far and the
+ * classes left in their poise tier, as coming after the ones being tested; these by their unresolved enemy attacks,
+ * see gapCost.
+ * main serves a session over standard input, one command per line: "tanks c e", "staggered c e", "next",
+ * "unresolved", "estimate", "status" or "quit", c being a character attack from 0 and e an enemy attack from 0*/
+public class OnlineEstimator {
+    private final int characters;
+    private final int enemies;
+    //character nodes of every poise tier
+    private final int groupSize;
+    private final TestStrategy.Kind strategy;
+    private final KnowledgeMatrix less;
+    private final TestStrategy tester;
+    private final SplittableRandom rnd;
+    //{ascending values, counts} of the stance damage tiers
+    private final int[][] damages;
+    //cumulative[q]: # of enemy attacks of the damage tiers below class q
+    private final int[] cumulative;
+    //a hyperarmour value of every class, for HyperarmourSolver.testsOf
+    private final int[] classValues;
+    //classCounts[g][q]: # of character nodes of poise tier g in class q, resolvedCounts[g][q] the resolved ones
+    private final int[][] classCounts;
+    private final int[][] resolvedCounts;
+    //classes the enemy nodes are split at
+    private int splits;
+    //band of every enemy node, by e - characters: the # of resolved character nodes less than it
+    private final int[] band;
+    private final boolean[] touched;
+    private final boolean[] resolved;
+    private final int[] untouched;
+    //character nodes some observation involved, not resolved yet
+    private final int[] active;
+    private int activeCount;
+    //scratch: # of enemy nodes unresolved for a character node in every band, then the sizes of the bands that
+    //aren't empty, by ascending band
+    private final int[] counts;
+    private final int[] sizes;
+    //character node the tester is on, -1 once all are resolved, and the enemy node it picked for it, if picked
+    private int current;
+    private int suggested;
+    private boolean picked;
+    private long tests;
+    private long unresolvedPairs;
+    //expected tests of the character nodes no observation involved
+    private double untouchedEstimate;
+    private double estimate;
+
+    /**A session of MonteCarloHyperarmour, poises being empty, or MonteCarloMixed: M character attacks for every poise
+     * tier, in tier order, then the N enemy attacks. seed drives the random picks of the tester*/
+    public OnlineEstimator(Stance[] poises, Stance[] hyperarmours, Stance[] damages, TestStrategy.Kind strategy,
+    		long seed) {
+        this.groupSize = MonteCarloHyperarmour.count(hyperarmours);
+        int groups = Math.max(poises.length, 1);
+        this.characters = groups * groupSize;
+        this.enemies = MonteCarloHyperarmour.count(damages);
+        this.strategy = strategy;
+        this.less = new KnowledgeMatrix(characters, enemies, Math.max(groupSize, 1));
+        this.tester = strategy.create(characters, enemies);
+        this.rnd = new SplittableRandom(seed);
+        this.damages = HyperarmourSolver.merge(damages);
+        int classes = this.damages[0].length + 1;
+        this.cumulative = new int[classes];
+        this.classValues = new int[classes];
+        for (int q = 0; q < classes; q++) {
+            cumulative[q] = q == 0 ? 0 : cumulative[q - 1] + this.damages[1][q - 1];
+            classValues[q] = q < classes - 1 ? this.damages[0][q] : Integer.MAX_VALUE;
+        }
+        this.classCounts = new int[groups][classes];
+        this.resolvedCounts = new int[groups][classes];
+        for (int g = 0; g < groups; g++) {
+            double poise = poises.length > 0 ? poises[g].getValue() : 0.0;
+            //the values of MonteCarloMixed.populateNodes
+            for (Stance h : hyperarmours)
+                classCounts[g][classOf(h.getValue() * (1.0 + poise / 100.0))] += h.getCount();
+        }
+        this.band = new int[enemies];
+        this.touched = new boolean[characters];
+        this.resolved = new boolean[characters];
+        this.untouched = new int[groups];
+        Arrays.fill(untouched, groupSize);
+        this.active = new int[characters];
+        this.counts = new int[characters + 1];
+        this.sizes = new int[characters + 1];
+        current = -1;
+        moveOn();
+        untouchedEstimate = untouchedEstimate();
+        update();
+    }
+
+    /**Records the outcome of testing character attack c against enemy attack e, e counting from 0: tanks if
+     * D(e) < H(c), staggered otherwise. An outcome already implied by the earlier ones adds nothing but the test, an
+     * outcome they rule out is rejected*/
+    public synchronized void observe(int c, int e, boolean tanks) {
+        if (c < 0 || c >= characters || e < 0 || e >= enemies)
+            throw new IllegalArgumentException("Character attacks are 0 to " + (characters - 1) +
+            		", enemy attacks 0 to " + (enemies - 1) + ": no " + c + ", " + e);
+        int node = characters + e;
+        if (tanks ? less.get(c, node) : less.get(node, c))
+            throw new IllegalArgumentException("Character attack " + c + (tanks ? " tanking" : " staggered by") +
+            		" enemy attack " + e + " contradicts the earlier observations");
+        tests++;
+        if (tanks)
+            less.applyTransitiveClosure(node, c);
+        else
+            less.applyTransitiveClosure(c, node);
+        if (!touched[c]) {
+            touched[c] = true;
+            untouched[c / groupSize]--;
+            active[activeCount++] = c;
+            untouchedEstimate = untouchedEstimate();
+        }
+        update();
+    }
+
+    /**{c, e}: the character attack and enemy attack to test next, null once every pair is resolved*/
+    public synchronized int[] next() {
+        if (current < 0)
+            return null;
+        if (!picked) {
+            suggested = tester.next(less, rnd);
+            picked = true;
+        }
+        return new int[] {current, suggested - characters};
+    }
+
+    /**# of {character attack, enemy attack} pairs whose outcome is neither observed nor implied yet*/
+    public synchronized long unresolvedPairs() {
+        return unresolvedPairs;
+    }
+
+    /**Expected # of tests left*/
+    public synchronized double estimatedRemainingTests() {
+        return estimate;
+    }
+
+    /**# of observations recorded so far*/
+    public synchronized long testsPerformed() {
+        return tests;
+    }
+
+    public synchronized boolean isAllResolved() {
+        return current < 0;
+    }
+
+    /**Resolves the character nodes the last closure resolved, moves the tester on if it has to, and brings the counts
+     * up to date. Only the character nodes observations involved are looked at: the others know nothing yet*/
+    private void update() {
+        boolean moved = false;
+        int kept = 0;
+        for (int i = 0; i < activeCount; i++) {
+            int c = active[i];
+            if (less.isResolved(c)) {
+                resolve(c);
+                moved = true;
+            } else {
+                active[kept++] = c;
+            }
+        }
+        activeCount = kept;
+        if (moved) {
+            moveOn();
+            untouchedEstimate = untouchedEstimate();
+        } else if (picked && (less.get(current, suggested) || less.get(suggested, current))) {
+            picked = false;
+        }
+        unresolvedPairs = 0;
+        for (int g = 0; g < untouched.length; g++)
+            unresolvedPairs += (long) untouched[g] * enemies;
+        estimate = untouchedEstimate;
+        for (int i = 0; i < activeCount; i++) {
+            int c = active[i];
+            unresolvedPairs += less.unresolvedEnemies(c);
+            estimate += estimateOf(c);
+        }
+    }
+
+    /**Every enemy node above c moves up a band, and the enemy nodes are split at the class of c*/
+    private void resolve(int c) {
+        resolved[c] = true;
+        int above = 0;
+        for (int i = 0; i < enemies; i++) {
+            if (less.get(c, characters + i)) {
+                band[i]++;
+                above++;
+            }
+        }
+        int q = classAt(enemies - above);
+        resolvedCounts[c / groupSize][q]++;
+        splits |= 1 << q;
+        tester.end(c, less);
+    }
+
+    /**Starts the tester on the first character node not resolved yet, or on the same one again, as the bands changed*/
+    private void moveOn() {
+        int c = current < 0 ? 0 : current;
+        while (c < characters && resolved[c])
+            c++;
+        current = c < characters ? c : -1;
+        picked = false;
+        if (current >= 0)
+            tester.begin(current, less, rnd);
+    }
+
+    /**The character nodes of every poise tier are tested in a random order, from the classes of the tier not resolved
+     * yet, after the active ones of the tier: these are estimated by estimateOf, so only the attacks past them in the
+     * order are counted. By the time the tester moves on to the next tier, every class of this one splits the enemy
+     * nodes. The active nodes of a later tier, observed out of order, are taken to come first in it too*/
+    private double untouchedEstimate() {
+        if (current < 0)
+            return 0.0;
+        double total = 0.0;
+        int split = splits;
+        int[] left = new int[cumulative.length];
+        for (int g = current / groupSize; g < classCounts.length; g++) {
+            int pool = 0;
+            for (int q = 0; q < left.length; q++) {
+                left[q] = Math.max(0, classCounts[g][q] - resolvedCounts[g][q]);
+                pool += left[q];
+            }
+            if (untouched[g] > 0)
+                total += HyperarmourSolver.expectedTests(left, split, this::classCost, pool - untouched[g]);
+            for (int q = 0; q < left.length; q++) {
+                if (classCounts[g][q] > 0)
+                    split |= 1 << q;
+            }
+        }
+        return total;
+    }
+
+    /**Expected tests of a character node of class a, the enemy nodes being split at the classes in split.
+     * The RANDOM tester's are exact, see HyperarmourSolver.testsOf; for the band testers, see gapCost*/
+    private double classCost(int split, int a) {
+        if (strategy == TestStrategy.Kind.RANDOM)
+            return HyperarmourSolver.testsOf(split, classValues, classValues[a], damages);
+        int tiers = damages[0].length;
+        int bands = 0;
+        int below = -1;
+        int above = -1;
+        double cost = 0.0;
+        for (int i = 0, b = -1; i < tiers; i++) {
+            if (i == 0 || (split & (1 << i)) != 0) {
+                b++;
+                bands++;
+            }
+            if (i == a - 1)
+                below = b;
+            if (i == a)
+                above = b;
+        }
+        for (int i = 0, b = -1; i < tiers; i++) {
+            if (i == 0 || (split & (1 << i)) != 0)
+                b++;
+            if (b == below || b == above)
+                cost += damages[1][i];
+        }
+        int adjacent = (below >= 0 ? 1 : 0) + (above >= 0 && above != below ? 1 : 0);
+        return cost + log2(bands - adjacent);
+    }
+
+    /**Expected tests of active character node c, against the enemy nodes still unresolved for it, c being in any of
+     * the classes of its poise tier not resolved yet that fit what is known of it, as many times as it holds*/
+    private double estimateOf(int c) {
+        Arrays.fill(counts, 0);
+        int lower = 0;
+        for (int i = 0; i < enemies; i++) {
+            int e = characters + i;
+            if (less.get(e, c))
+                lower++;
+            else if (!less.get(c, e))
+                counts[band[i]]++;
+        }
+        int bands = 0;
+        int unresolved = 0;
+        for (int b = 0; b < counts.length; b++) {
+            if (counts[b] > 0) {
+                sizes[bands++] = counts[b];
+                unresolved += counts[b];
+            }
+        }
+        if (unresolved == 0)
+            return 0.0;
+        int g = c / groupSize;
+        double sum = 0.0;
+        int weights = 0;
+        for (int q = 0; q < cumulative.length; q++) {
+            int gap = cumulative[q] - lower;
+            int weight = classCounts[g][q] - resolvedCounts[g][q];
+            if (gap >= 0 && gap <= unresolved && weight > 0) {
+                sum += weight * gapCost(bands, gap);
+                weights += weight;
+            }
+        }
+        if (weights > 0)
+            return sum / weights;
+        //what was observed fits none of the classes left: any gap then
+        for (int gap = 0; gap <= unresolved; gap++)
+            sum += gapCost(bands, gap);
+        return sum / (unresolved + 1);
+    }
+
+    /**Expected tests of a character node with gap of the enemy nodes unresolved for it below, these being split in
+     * bands of sizes[0] to sizes[bands - 1], by ascending band.
+     * For c in band b, every enemy node of b is tested, and of b - 1 too if c lies right above it: nothing else
+     * resolves them. The RANDOM tester tests an enemy node e of another band iff it comes before every enemy node
+     * on the same side of c whose band lies between e and c, as HyperarmourSolver has it. The band testers halve the
+     * other bands instead: log2(1 + their #) tests, as if they split them evenly*/
+    private double gapCost(int bands, int gap) {
+        int b = 0;
+        while (b < bands && gap >= sizes[b])
+            gap -= sizes[b++];
+        double cost = b < bands ? sizes[b] : 0;
+        if (strategy != TestStrategy.Kind.RANDOM) {
+            boolean rightAbove = gap == 0 && b > 0;
+            return cost + (rightAbove ? sizes[b - 1] : 0) + log2(bands - (b < bands ? 1 : 0) - (rightAbove ? 1 : 0));
+        }
+        int between = gap;
+        for (int i = b - 1; i >= 0; i--) {
+            cost += (double) sizes[i] / (1 + between);
+            between += sizes[i];
+        }
+        between = b < bands ? sizes[b] - gap : 0;
+        for (int i = b + 1; i < bands; i++) {
+            cost += (double) sizes[i] / (1 + between);
+            between += sizes[i];
+        }
+        return cost;
+    }
+
+    /**Class of a character attack of the given value: # of stance damage tiers it tanks*/
+    private int classOf(double value) {
+        int q = 0;
+        while (q < damages[0].length && damages[0][q] < value)
+            q++;
+        return q;
+    }
+
+    /**Class of a character attack tanking the given # of enemy attacks, the highest one that fits*/
+    private int classAt(int lower) {
+        int q = 0;
+        while (q + 1 < cumulative.length && cumulative[q + 1] <= lower)
+            q++;
+        return q;
+    }
+
+    /**log2(1 + the # of bands left aside)*/
+    private static double log2(int others) {
+        return Math.log(1 + others) / Math.log(2);
+    }
+
+    /**Optional arguments: [model: hyperarmour or mixed] [tester: random, median or information] [seed of the
+     * tester's random picks]*/
+    public static void main(String[] args) {
+        boolean mixed = args.length > 0 && args[0].equalsIgnoreCase(MonteCarloMixed.SCENARIO.getName());
+        if (args.length > 0 && !mixed && !args[0].equalsIgnoreCase(MonteCarloHyperarmour.SCENARIO.getName()))
+            throw new IllegalArgumentException("Unknown model " + args[0] + ": hyperarmour or mixed");
+        TestStrategy.Kind strategy = args.length > 1 ? TestStrategy.Kind.valueOf(args[1].toUpperCase()) :
+        		TestStrategy.Kind.RANDOM;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : System.nanoTime();
+        OnlineEstimator session = mixed ?
+        		new OnlineEstimator(MonteCarloMixed.POISES, MonteCarloMixed.HYPERARMOURS, MonteCarloMixed.DAMAGES,
+        		strategy, seed) :
+        		new OnlineEstimator(new Stance[0], MonteCarloHyperarmour.HYPERARMOURS, MonteCarloHyperarmour.DAMAGES,
+        		strategy, seed);
+        System.out.println("Live " + (mixed ? "mixed" : "hyperarmour") + " session, " + strategy + " tester: " +
+        		session.characters + " character attacks, " + session.enemies + " enemy attacks");
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        try {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                String[] words = line.trim().split("\\s+");
+                if (words[0].isEmpty())
+                    continue;
+                if (words[0].equals("quit"))
+                    break;
+                try {
+                    System.out.println(session.execute(words));
+                } catch (IllegalArgumentException e) {
+                    System.out.println("error: " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't read the commands", e);
+        }
+    }
+
+    /**The answer to a command of main*/
+    private String execute(String[] words) {
+        switch (words[0]) {
+            case "tanks":
+            case "staggered":
+                if (words.length != 3)
+                    throw new IllegalArgumentException("Expected " + words[0] + " <character attack> <enemy attack>");
+                observe(Integer.parseInt(words[1]), Integer.parseInt(words[2]), words[0].equals("tanks"));
+                return "ok";
+            case "next":
+                int[] pair = next();
+                return pair == null ? "done" : pair[0] + " " + pair[1];
+            case "unresolved":
+                return Long.toString(unresolvedPairs());
+            case "estimate":
+                return String.format("%.1f", estimatedRemainingTests());
+            case "status":
+                return String.format("%d tests, %d pairs unresolved, %.1f tests left", testsPerformed(),
+                		unresolvedPairs(), estimatedRemainingTests());
+            default:
+                throw new IllegalArgumentException("Unknown command " + words[0] +
+                		": tanks, staggered, next, unresolved, estimate, status or quit");
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package soulsestimations;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**Streams every permutation of the poise tiers without materialising any of them.
+ * Tiers are handled by rank (0 being the lowest value), permutations are generated in place on an int array by
+ * swapping, and the probability of the permutation under weighted sampling without replacement is carried along
+ * the recursion: picking tier t when the tiers left weigh R multiplies it by w(t)/R.
+ * For every permutation, the # of tests is evaluated for all the L+1 ranges D(e) might fall in:
+ * range 0 is D(e) < p1, range i is pi < D(e) < p(i+1), range L is pL < D(e).
+ * The permutations are split by their first tiers among the cores, and the partial sums are added in prefix order,
+ * so the result doesn't depend on the number of threads*/
+public class PermutationEnumerator {
+	//tiers fixed by each parallel task
+	private static final int PREFIX_LENGTH = 2;
+
+	/**E[T | D(e) in range r] for every range r, weights[t] being the # of armours granting the t-th lowest tier*/
+	public static double[] expectedTests(int[] weights) {
+		int n = weights.length;
+		int prefix = Math.min(PREFIX_LENGTH, n);
+		int tasks = 1;
+		for (int d = 0; d < prefix; d++)
+			tasks *= n - d;
+		double[][] partials = new double[tasks][];
+		IntStream.range(0, tasks).parallel().forEach(task -> partials[task] = expectedTests(weights, prefix, task));
+		double[] expected = new double[n + 1];
+		for (double[] partial : partials) {
+			for (int r = 0; r <= n; r++)
+				expected[r] += partial[r];
+		}
+		return expected;
+	}
+
+	/**Sums over the permutations whose first prefix tiers are given by the mixed-radix digits of task*/
+	private static double[] expectedTests(int[] weights, int prefix, int task) {
+		int n = weights.length;
+		int[] perm = IntStream.range(0, n).toArray();
+		int remaining = IntStream.of(weights).sum();
+		double probability = 1.0;
+		for (int d = 0; d < prefix; d++) {
+			swap(perm, d, d + task % (n - d));
+			task /= n - d;
+			probability *= (double) weights[perm[d]] / remaining;
+			remaining -= weights[perm[d]];
+		}
+		double[] expected = new double[n + 1];
+		permute(perm, prefix, probability, remaining, weights, new int[n + 1], expected);
+		return expected;
+	}
+
+	private static void permute(int[] perm, int depth, double probability, int remaining, int[] weights,
+			int[] tests, double[] expected) {
+		int n = perm.length;
+		if (depth == n) {
+			countTests(perm, tests);
+			for (int r = 0; r <= n; r++)
+				expected[r] += tests[r] * probability;
+			return;
+		}
+		for (int i = depth; i < n; i++) {
+			swap(perm, depth, i);
+			int w = weights[perm[depth]];
+			permute(perm, depth + 1, probability * w / remaining, remaining - w, weights, tests, expected);
+			swap(perm, depth, i);
+		}
+	}
+
+	/**tests[r]: # of tiers tested, following perm, before D(e) is known to fall in range r, for every r in a single walk.
+	 * For D(e) < p1 only every new lowest tier is tested, for pL < D(e) every new highest, and for pi < D(e) < p(i+1)
+	 * the tiers between the highest floor and the lowest ceiling seen so far. In every case, a tier t is skipped if a
+	 * tier seen before it lies between t and the range, so t is tested against ranges lo+1 to hi, lo being the highest
+	 * tier seen before t and below it, hi the lowest seen before t and above it. The tiers seen are kept in a bit mask,
+	 * so perm can't hold more than 64 tiers*/
+	static void countTests(int[] perm, int[] tests) {
+		int n = perm.length;
+		if (n > Long.SIZE)
+			throw new IllegalArgumentException("At most " + Long.SIZE + " tiers can be evaluated, not " + n);
+		Arrays.fill(tests, 0, n + 1, 0);
+		long seen = 0L;
+		for (int t : perm) {
+			long below = seen & ((1L << t) - 1);
+			long above = seen & -(2L << t);
+			int lo = Long.SIZE - 1 - Long.numberOfLeadingZeros(below);
+			int hi = Math.min(n, Long.numberOfTrailingZeros(above));
+			//tests holds the differences between consecutive ranges until the prefix sums below
+			tests[lo + 1]++;
+			if (hi < n)
+				tests[hi + 1]--;
+			seen |= 1L << t;
+		}
+		for (int r = 1; r <= n; r++)
+			tests[r] += tests[r - 1];
+	}
+
+	private static void swap(int[] perm, int i, int j) {
+		int tmp = perm[i];
+		perm[i] = perm[j];
+		perm[j] = tmp;
+	}
+}
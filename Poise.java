@@ -1,11 +1,10 @@
 package soulsestimations;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.function.BiPredicate;
 import java.util.stream.Collectors;
 
 public class Poise {
@@ -50,13 +49,8 @@ public class Poise {
     	//7 armours granting 31 poise, 6 armours granting 46 poise, etc.
         List<Stance> poises = configure(new Stance(31, 7), new Stance(46, 6), new Stance(61, 12),
         	    new Stance(76, 9), new Stance(91, 5), new Stance(106, 3));
-        //We'll store in this List all the possible poise permutations
-        List<List<Stance>> permutations = new ArrayList<>();
-        permute(poises, 0, permutations);
-        //Associate each permutation of poises with its likelihood
-        Map<List<Stance>, Double> permProbMap = new HashMap<>();
-        permutations.forEach(p -> permProbMap.put(p, permutationProbability(p)));
-        double actualComplexity = computeComplexity(poises, DAMAGES, permProbMap);
+        //All the possible poise permutations are streamed along with their likelihoods
+        double actualComplexity = computeComplexity(poises, DAMAGES);
         double naiveComplexity = N * poises.size();
         System.out.println("Poise: " + actualComplexity + ", " + Math.round(100 * actualComplexity/naiveComplexity) +
         "% of naive complexity " );
@@ -65,12 +59,7 @@ public class Poise {
         //80 character attacks granting 31 hyperarmour, 100 character attacks granting 61 hyperarmour, etc.
         List<Stance> hyperarmours = configure(new Stance(31, 80), new Stance(61, 100), new Stance(91, 60), 
         		new Stance(121, 10));
-        permutations = new ArrayList<>();
-        permute(hyperarmours, 0, permutations);
-        Map<List<Stance>, Double> haMap = new HashMap<>();
-        permutations.forEach(p -> haMap.put(p, permutationProbability(p)));
-        hyperarmours.sort((h1, h2) -> Integer.compare(h1.getValue(), h2.getValue()));
-        actualComplexity = computeComplexity(hyperarmours, DAMAGES, haMap);
+        actualComplexity = computeComplexity(hyperarmours, DAMAGES);
         naiveComplexity = N * hyperarmours.size();
         System.out.println("Hyperarmour(explicit): " + actualComplexity + ", " +
         Math.round(100* actualComplexity/naiveComplexity) + "% of naive complexity");
@@ -112,114 +101,108 @@ public class Poise {
     /**Sums the products of the expected number of poises to be tested against a D(e) falling in a given range
      * and the probability D(e) falls in that range, for each possible range where D(e) might fall.
      * The sum obtained is the expected number of poises to be tested against a random D(e).
-     * This number is multiplied by the total of enemy attacks to return the whole epistemic complexity*/
+     * This number is multiplied by the total of enemy attacks to return the whole epistemic complexity.
+     * Every permutation is walked once, on the ranks of its poises, for the # of tests against all the ranges*/
     static double computeComplexity(List<Stance> poises, List<Stance> damages, Map<List<Stance>, Double> permProbMap) {
     	//Sort poises in ascending order
     	poises.sort((p1, p2) -> Integer.compare(p1.getValue(), p2.getValue()));
     	int n = poises.size();
-    	double total = 0.0;
-    	int tier1 = poises.get(0).getValue();
-    	double lowerThanP1Prob = damages.stream().
-    			filter(d -> d.getValue() < tier1).
-    			mapToInt(Stance::getCount).sum() / (double) N;
-    	double tests = expectedNumberOfTests(permProbMap, tier1, (a, b) -> a < b);
-    	total += tests * lowerThanP1Prob;
-    	for (int i = 0; i < n - 1; i++) {
-    		int lower = poises.get(i).getValue();
-    		int upper = poises.get(i+1).getValue();
-    		double prob = damages.stream().
-    				filter(d -> d.getValue() > lower && d.getValue() < upper).
-    				mapToInt(Stance::getCount).sum() / (double) N;
-    		tests = expectedNumberOfTestsPair(permProbMap, lower, upper);
-    		total += tests * prob;
+    	int[] values = poises.stream().mapToInt(Stance::getValue).toArray();
+    	int[] ranks = new int[n];
+    	int[] tests = new int[n + 1];
+    	double[] expected = new double[n + 1];
+    	for (Map.Entry<List<Stance>, Double> e : permProbMap.entrySet()) {
+    		List<Stance> perm = e.getKey();
+    		double prob = e.getValue();
+    		for (int i = 0; i < n; i++)
+    			ranks[i] = Arrays.binarySearch(values, perm.get(i).getValue());
+    		PermutationEnumerator.countTests(ranks, tests);
+    		for (int r = 0; r <= n; r++)
+    			expected[r] += tests[r] * prob;
     	}
-    	int tierM = poises.get(n-1).getValue();
-    	tests = expectedNumberOfTests(permProbMap, poises.get(n-1).getValue(), (a, b) -> a > b);
-    	double higherThanPmProb = damages.stream().
-    			filter(d -> d.getValue() > tierM).
-    			mapToInt(Stance::getCount).sum() / (double) N;
-    	total += tests * higherThanPmProb;
+    	double[] probs = rangeProbabilities(poises, damages);
+    	double total = 0.0;
+    	for (int r = 0; r <= n; r++)
+    		total += expected[r] * probs[r];
     	return total * N;
     }
     
-    /**This method is meant for computing either E[T | D(e) < p1] or E[T | pm < D(e)], depending upon
-    * the implementation of BiPredicate passed. Iterating over permutations:
-    * 1. for E[T | D(e) < p1], the method sets as an upper bound the lowest poise tier encountered so far
-    * 		in the permutation and skips all those above;
-    * 2. for E[T | pm < D(e)], the method sets as a lower bound the highest poise tier encountered so far
-    * 		in the permutation and skips all those below
-    * The number of poises that weren't skipped is the number of tests performed given that particular permutation.
-    * This number gets multiplied by the probability of the permutation's occurring.
-    * The method returns the sum of these products*/
-   static double expectedNumberOfTests(Map<List<Stance>, Double> permProbMap, int reference, 
-		   BiPredicate<Integer, Integer> comparison) {
-	   double total = 0.0;
-	   for (Map.Entry<List<Stance>, Double> e : permProbMap.entrySet()) {
-		   int tests = 1;
-		   List<Stance> perm = e.getKey();
-		   double prob = e.getValue();
-		   int limitIdx = 0;
-		   for (int i = 0; i < perm.size(); i++) {
-			   int limit = perm.get(limitIdx).getValue();
-			   int currentValue = perm.get(i).getValue();
-			   if (comparison.test(currentValue, limit))
-				   limitIdx = i;
-			   if (comparison.test(limit, currentValue))
-				   continue;
-			   if (currentValue == reference)
-				   break;
-			   tests++;
-		   }
-		   total += tests * prob;
-	   }
-	   return total;
-   }
-    
-   /**Computes E[T | pi < D(e) < p(i+1)] iterating through permutations, by 
-    * 1. setting the ceiling at the lowest poise tier >= upperBound encountered so far in the permutation,
-    * 2. setting the floor at the highest poise tier <= lowerBound encountered so far,
-    * 3. skipping everything above the ceiling or below the floor.
-    * The number of poises that weren't skipped is the number of tests performed given that particular permutation.
-    * This number gets multiplied by the probability of that permutation's occurring.
-    * The method returns the sum of these products.*/
-   static double expectedNumberOfTestsPair(Map<List<Stance>, Double> permProbMap, int lowerBound, int upperBound) {
-	   double total = 0.0;
-	   for (Map.Entry<List<Stance>, Double> e : permProbMap.entrySet()) {
-		   int tests = 1;
-		   List<Stance> perm = e.getKey();
-		   double prob = e.getValue();
-		   int floorIdx = -1;
-		   int ceilingIdx = -1;
-		   boolean lowerBoundSeen = false;
-		   boolean upperBoundSeen = false;
-		   for (int i = 0; i < perm.size(); i++) {
-			   int currentValue = perm.get(i).getValue();
-			   int floor = floorIdx >= 0? perm.get(floorIdx).getValue() : currentValue;
-			   int ceiling = ceilingIdx >= 0? perm.get(ceilingIdx).getValue() : currentValue;
-			   if (currentValue < lowerBound) {
-				   if (currentValue < floor)
-					   continue;
-				   floorIdx = i;
-			   }
-			   if (currentValue > upperBound) {
-				   if (currentValue > ceiling)
-					   continue;
-				   ceilingIdx = i;
-			   }
-			   if (currentValue == lowerBound) {
-				   lowerBoundSeen = true;
-				   floorIdx = i;
-			   }
-			   if (currentValue == upperBound) {
-				   upperBoundSeen = true;
-				   ceilingIdx = i;
-			   }
-			   if (lowerBoundSeen && upperBoundSeen)
-				   break;
-			   tests++;
-		   }
-		   total += tests * prob;
-	   }
-	   return total;
-   }
-} 
\ No newline at end of file
+    /**Same as computeComplexity(poises, damages, permProbMap), without materialising the permutations:
+     * PermutationEnumerator streams them in place, and evaluates E[T] for every range of D(e) in a single pass*/
+    static double computeComplexity(List<Stance> poises, List<Stance> damages) {
+    	//Sort poises in ascending order
+    	poises.sort((p1, p2) -> Integer.compare(p1.getValue(), p2.getValue()));
+    	int n = poises.size();
+    	double[] tests = PermutationEnumerator.expectedTests(poises.stream().mapToInt(Stance::getCount).toArray());
+    	double[] probs = rangeProbabilities(poises, damages);
+    	double total = 0.0;
+    	for (int r = 0; r <= n; r++)
+    		total += tests[r] * probs[r];
+    	return total * N;
+    }
+
+    /**Epistemic complexity of a single order of the poise tiers, order[i] being the value of the i-th tier tested.
+     * Its expectation over the orders, weighted by permutationProbability, is computeComplexity(poises, damages).
+     * poises must be sorted in ascending order*/
+    static double complexityOf(int[] order, List<Stance> poises, List<Stance> damages) {
+    	int n = poises.size();
+    	int[] ranks = new int[n];
+    	for (int i = 0; i < n; i++) {
+    		for (int r = 0; r < n; r++) {
+    			if (poises.get(r).getValue() == order[i])
+    				ranks[i] = r;
+    		}
+    	}
+    	int[] tests = new int[n + 1];
+    	PermutationEnumerator.countTests(ranks, tests);
+    	double[] probs = rangeProbabilities(poises, damages);
+    	double total = 0.0;
+    	for (int r = 0; r <= n; r++)
+    		total += tests[r] * probs[r];
+    	return total * N;
+    }
+
+    /**Probability of D(e) falling in each of the L+1 ranges delimited by the poises, sorted in ascending order:
+     * D(e) < p1, pi < D(e) < p(i+1), pL < D(e).
+     * The damages are sorted by value once, with the running # of enemy attacks dealing up to each, so the attacks
+     * of a range are told by two binary searches*/
+    static double[] rangeProbabilities(List<Stance> poises, List<Stance> damages) {
+    	int m = damages.size();
+    	Stance[] sorted = damages.toArray(new Stance[m]);
+    	Arrays.sort(sorted, (d1, d2) -> Integer.compare(d1.getValue(), d2.getValue()));
+    	int[] values = new int[m];
+    	//upTo[i]: # of enemy attacks dealing one of the i lowest damages
+    	int[] upTo = new int[m + 1];
+    	for (int i = 0; i < m; i++) {
+    		values[i] = sorted[i].getValue();
+    		upTo[i + 1] = upTo[i] + sorted[i].getCount();
+    	}
+    	int n = poises.size();
+    	double[] probs = new double[n + 1];
+    	for (int r = 0; r <= n; r++) {
+    		int above = r > 0 ? upTo[firstAbove(values, poises.get(r - 1).getValue())] : 0;
+    		int below = r < n ? upTo[firstAtLeast(values, poises.get(r).getValue())] : upTo[m];
+    		probs[r] = Math.max(0, below - above) / (double) N;
+    	}
+    	return probs;
+    }
+
+    /**Index of the first of the sorted values >= value, values.length if none*/
+    private static int firstAtLeast(int[] values, int value) {
+    	int low = 0;
+    	int high = values.length;
+    	while (low < high) {
+    		int mid = (low + high) >>> 1;
+    		if (values[mid] < value)
+    			low = mid + 1;
+    		else
+    			high = mid;
+    	}
+    	return low;
+    }
+
+    /**Index of the first of the sorted values > value, values.length if none*/
+    private static int firstAbove(int[] values, int value) {
+    	return value == Integer.MAX_VALUE ? values.length : firstAtLeast(values, value + 1);
+    }
+}
@@ -0,0 +1,42 @@
+package soulsestimations;
+
+/**Target width of the 99% confidence interval, for runs that stop as soon as the mean is known well enough.
+ * Either absolute ("0.5": mean ± 0.5 tests) or relative to the mean ("1%": mean ± 1%)*/
+public class Precision {
+    //fewer results than this give too rough an estimate of the standard deviation to stop on
+    public static final long MIN_TRIALS = 30;
+
+    private final double tolerance;
+    private final boolean relative;
+
+    public Precision(double tolerance, boolean relative) {
+        if (!(tolerance > 0))
+            throw new IllegalArgumentException("tolerance must be positive: " + tolerance);
+        this.tolerance = tolerance;
+        this.relative = relative;
+    }
+
+    /**"0.5", "1%", or "-" for none*/
+    public static Precision parse(String s) {
+        s = s.trim();
+        if (s.equals("-"))
+            return null;
+        if (s.endsWith("%"))
+            return new Precision(Double.parseDouble(s.substring(0, s.length() - 1)) / 100.0, true);
+        return new Precision(Double.parseDouble(s), false);
+    }
+
+    /**Whether the 99% CI half-width of the results so far is within the tolerance*/
+    public boolean isReached(SamplingStats stats) {
+        if (stats.getCount() < MIN_TRIALS)
+            return false;
+        double target = relative ? tolerance * Math.abs(stats.getMean()) : tolerance;
+        //NaN until the sampling mode can estimate its own variance
+        return stats.halfWidth() <= target;
+    }
+
+    @Override
+    public String toString() {
+        return relative ? "±" + (tolerance * 100.0) + "%" : "±" + tolerance;
+    }
+}
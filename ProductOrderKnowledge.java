@@ -0,0 +1,386 @@
+package soulsestimations;
+
+import java.util.Arrays;
+
+/**Knowledge state of the poise × hyperarmour model that knows its structure in advance: node c of group g holds
+ * H(c)·(1 + p(g)/100), which is monotone in both H(c) and p(g). So the nodes of a character attack are ordered like
+ * the poise tiers of their groups, and two character attacks compare the same way in every tier.
+ * Instead of the (L·M + N)² matrix it keeps, as bit rows:
+ * the order of the M character attacks, shared by all the tiers, and the order of the N enemy attacks;
+ * for every tier t and character attack c, the enemy attacks known to be below and above node (t, c), which only
+ * grow (below) or shrink (above) as t rises, so one observation reaches every tier at once.
+ * Relations between character nodes of different tiers aren't stored: those the tiers and the shared order don't
+ * imply go through an enemy node, whose rows already hold their consequences.
+ * Once two character attacks are found ordered, the closure is applied again to the tiers it didn't cover yet,
+ * until nothing new is learnt.
+ * Tiers are ranked by the largest value of their group, its poise times the largest hyperarmour: any one node won't
+ * do, as a hyperarmour of 0 is 0 in every tier. Only pairs of a character and an enemy node can be queried*/
+public class ProductOrderKnowledge implements KnowledgeState {
+    private final int characters;
+    private final int enemies;
+    private final int groupSize;
+    private final int tiers;
+    private final int enemyWords;
+    private final int attackWords;
+    //tierOf[g]: rank of group g among the poise tiers; tierValues[g]: largest value of group g, which ranks it
+    private final int[] tierOf;
+    private final double[] tierValues;
+    //below[t * M + c]: every e such that less(e, (t, c)); above[t * M + c]: every e such that less((t, c), e)
+    private final long[][] below;
+    private final long[][] above;
+    //attackRows[c]: every c' greater than c in all the tiers; attackCols[c']: every such c
+    private final long[][] attackRows;
+    private final long[][] attackCols;
+    //enemyRows[e]: every e' such that less(e, e'); enemyCols[e']: every such e
+    private final long[][] enemyRows;
+    private final long[][] enemyCols;
+    //scratch sets of the closure being applied: the lesser and greater enemy nodes, the highest tier in which each
+    //character attack is lesser (-1 if none) and the lowest in which it is greater (tiers if none)
+    private final long[] lesser;
+    private final long[] greater;
+    private final int[] lesserTop;
+    private final int[] greaterBottom;
+    //greaterUpTo[t]: character attacks greater in tier t or below
+    private final long[][] greaterUpTo;
+    private final long[] attacks;
+    private final long[] greaterAttacks;
+    //pending[t * M + c]: character attacks found greater than c, whose consequences in tier t are yet to be drawn
+    private final long[][] pending;
+    //false once pending is known to be empty, which it is between two observations
+    private boolean anyPending;
+    //cursors[g]: first node of group g that may still be unresolved
+    private final int[] cursors;
+    private int cursor;
+
+    public ProductOrderKnowledge(double[] values, int characters, int enemies, int groupSize) {
+        if (groupSize < 1 || characters % groupSize != 0)
+            throw new IllegalArgumentException(characters + " character nodes can't be split in groups of " + groupSize);
+        if (values.length != characters + enemies)
+            throw new IllegalArgumentException(values.length + " values for " + (characters + enemies) + " nodes");
+        this.characters = characters;
+        this.enemies = enemies;
+        this.groupSize = groupSize;
+        this.tiers = characters / groupSize;
+        this.enemyWords = (enemies + 63) >>> 6;
+        this.attackWords = (groupSize + 63) >>> 6;
+        this.tierOf = new int[tiers];
+        this.tierValues = new double[tiers];
+        this.below = new long[characters][enemyWords];
+        this.above = new long[characters][enemyWords];
+        this.attackRows = new long[groupSize][attackWords];
+        this.attackCols = new long[groupSize][attackWords];
+        this.enemyRows = new long[enemies][enemyWords];
+        this.enemyCols = new long[enemies][enemyWords];
+        this.lesser = new long[enemyWords];
+        this.greater = new long[enemyWords];
+        this.lesserTop = new int[groupSize];
+        this.greaterBottom = new int[groupSize];
+        this.greaterUpTo = new long[tiers][attackWords];
+        this.attacks = new long[attackWords];
+        this.greaterAttacks = new long[attackWords];
+        this.pending = new long[characters][attackWords];
+        this.cursors = new int[tiers];
+        reset(values);
+    }
+
+    @Override
+    public boolean get(int a, int b) {
+        if (a < characters && b >= characters)
+            return isSet(above[node(a)], b - characters);
+        if (a >= characters && b < characters)
+            return isSet(below[node(b)], a - characters);
+        throw new IllegalArgumentException("Only character-enemy pairs are tracked: " + a + ", " + b);
+    }
+
+    /** ∀j[(less(j,u) OR j = u) -> ∀k[(less(v,k) OR k = v) -> less(j,k)]], and again in every tier for each pair of
+     * character attacks this orders*/
+    @Override
+    public void applyTransitiveClosure(int u, int v) {
+        if (get(u, v))
+            return;
+        if (u < characters) {
+            lesserThanAttacks(tierOf[u / groupSize], single(u % groupSize));
+            greaterThanEnemy(v - characters);
+        } else {
+            lesserThanEnemy(u - characters);
+            greaterThanAttacks(tierOf[v / groupSize], single(v % groupSize));
+        }
+        close();
+        while (anyPending) {
+            anyPending = false;
+            for (int n = 0; n < characters; n++) {
+                if (isEmpty(pending[n]))
+                    continue;
+                anyPending = true;
+                System.arraycopy(pending[n], 0, greaterAttacks, 0, attackWords);
+                Arrays.fill(pending[n], 0L);
+                lesserThanAttacks(n / groupSize, single(n % groupSize));
+                greaterThanAttacks(n / groupSize, greaterAttacks);
+                close();
+            }
+        }
+    }
+
+    @Override
+    public int unresolvedEnemies(int c) {
+        long[] lesserEnemies = below[node(c)];
+        long[] greaterEnemies = above[node(c)];
+        int resolved = 0;
+        for (int w = 0; w < enemyWords; w++)
+            resolved += Long.bitCount(lesserEnemies[w] | greaterEnemies[w]);
+        return enemies - resolved;
+    }
+
+    @Override
+    public boolean isGroupResolved(int g) {
+        int end = (g + 1) * groupSize;
+        while (cursors[g] < end && unresolvedEnemies(cursors[g]) == 0)
+            cursors[g]++;
+        return cursors[g] == end;
+    }
+
+    @Override
+    public boolean isAllResolved() {
+        while (cursor < characters && unresolvedEnemies(cursor) == 0)
+            cursor++;
+        return cursor == characters;
+    }
+
+    @Override
+    public void clear() {
+        clear(below);
+        clear(above);
+        clear(attackRows);
+        clear(attackCols);
+        clear(enemyRows);
+        clear(enemyCols);
+        clear(pending);
+        anyPending = false;
+        for (int g = 0; g < tiers; g++)
+            cursors[g] = g * groupSize;
+        cursor = 0;
+    }
+
+    /**Ranks the tiers by the new values: groups of the same largest value keep their order*/
+    @Override
+    public void reset(double[] values) {
+        if (values.length != characters + enemies)
+            throw new IllegalArgumentException(values.length + " values for " + (characters + enemies) + " nodes");
+        for (int g = 0; g < tiers; g++) {
+            tierValues[g] = values[g * groupSize];
+            for (int n = g * groupSize + 1; n < (g + 1) * groupSize; n++)
+                tierValues[g] = Math.max(tierValues[g], values[n]);
+        }
+        for (int g = 0; g < tiers; g++) {
+            tierOf[g] = 0;
+            for (int h = 0; h < tiers; h++) {
+                int order = Double.compare(tierValues[h], tierValues[g]);
+                if (order < 0 || order == 0 && h < g)
+                    tierOf[g]++;
+            }
+        }
+        clear();
+    }
+
+    /**Row of character node c in below and above*/
+    private int node(int c) {
+        return tierOf[c / groupSize] * groupSize + c % groupSize;
+    }
+
+    /**Nodes lesser than enemy node e, or e itself*/
+    private void lesserThanEnemy(int e) {
+        System.arraycopy(enemyCols[e], 0, lesser, 0, enemyWords);
+        lesser[e >>> 6] |= 1L << e;
+        //less((t, c), e) holds up to some tier
+        for (int c = 0; c < groupSize; c++) {
+            int low = -1, high = tiers - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (isSet(above[mid * groupSize + c], e))
+                    low = mid;
+                else
+                    high = mid - 1;
+            }
+            lesserTop[c] = low;
+        }
+    }
+
+    /**Nodes greater than enemy node e, or e itself*/
+    private void greaterThanEnemy(int e) {
+        System.arraycopy(enemyRows[e], 0, greater, 0, enemyWords);
+        greater[e >>> 6] |= 1L << e;
+        //less(e, (t, c)) holds from some tier on
+        for (int c = 0; c < groupSize; c++) {
+            int low = 0, high = tiers;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (isSet(below[mid * groupSize + c], e))
+                    high = mid;
+                else
+                    low = mid + 1;
+            }
+            greaterBottom[c] = low;
+        }
+    }
+
+    /**Nodes lesser than node (t, c) for some c in set, or those nodes themselves*/
+    private void lesserThanAttacks(int t, long[] set) {
+        Arrays.fill(lesser, 0L);
+        Arrays.fill(lesserTop, -1);
+        for (int w = 0; w < attackWords; w++) {
+            for (long bits = set[w]; bits != 0; bits &= bits - 1) {
+                int c = (w << 6) + Long.numberOfTrailingZeros(bits);
+                or(lesser, below[t * groupSize + c]);
+                lesserTop[c] = t;
+                //so is every character attack lesser than c, in tier t and below
+                long[] col = attackCols[c];
+                for (int v = 0; v < attackWords; v++) {
+                    for (long lower = col[v]; lower != 0; lower &= lower - 1)
+                        lesserTop[(v << 6) + Long.numberOfTrailingZeros(lower)] = t;
+                }
+            }
+        }
+        //and, through the enemy nodes, any node lesser than one of them: in tier t, the shared order already has
+        //them all, so only the tiers above t can add to a lesser attack, and those below t to any other
+        for (int c = 0; c < groupSize; c++) {
+            int low = lesserTop[c], high = lesserTop[c] < 0 ? t - 1 : tiers - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (intersects(above[mid * groupSize + c], lesser))
+                    low = mid;
+                else
+                    high = mid - 1;
+            }
+            lesserTop[c] = low;
+        }
+    }
+
+    /**Nodes greater than node (t, c) for some c in set, or those nodes themselves*/
+    private void greaterThanAttacks(int t, long[] set) {
+        Arrays.fill(greater, 0L);
+        Arrays.fill(greaterBottom, tiers);
+        for (int w = 0; w < attackWords; w++) {
+            for (long bits = set[w]; bits != 0; bits &= bits - 1) {
+                int c = (w << 6) + Long.numberOfTrailingZeros(bits);
+                or(greater, above[t * groupSize + c]);
+                greaterBottom[c] = t;
+                //so is every character attack greater than c, in tier t and above
+                long[] row = attackRows[c];
+                for (int v = 0; v < attackWords; v++) {
+                    for (long higher = row[v]; higher != 0; higher &= higher - 1)
+                        greaterBottom[(v << 6) + Long.numberOfTrailingZeros(higher)] = t;
+                }
+            }
+        }
+        //and, through the enemy nodes, any node greater than one of them
+        for (int c = 0; c < groupSize; c++) {
+            int low = greaterBottom[c] == tiers ? t + 1 : 0, high = greaterBottom[c];
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (intersects(below[mid * groupSize + c], greater))
+                    high = mid;
+                else
+                    low = mid + 1;
+            }
+            greaterBottom[c] = low;
+        }
+    }
+
+    /**Every lesser node is less than every greater node. Pairs of character attacks ordered this way for the first
+     * time are added to pending, in the tiers where they weren't both among the lesser and greater nodes, and pending
+     * pairs that were are dropped*/
+    private void close() {
+        for (int w = 0; w < enemyWords; w++) {
+            for (long bits = lesser[w]; bits != 0; bits &= bits - 1)
+                or(enemyRows[(w << 6) + Long.numberOfTrailingZeros(bits)], greater);
+        }
+        for (int w = 0; w < enemyWords; w++) {
+            for (long bits = greater[w]; bits != 0; bits &= bits - 1)
+                or(enemyCols[(w << 6) + Long.numberOfTrailingZeros(bits)], lesser);
+        }
+        for (long[] row : greaterUpTo)
+            Arrays.fill(row, 0L);
+        for (int c = 0; c < groupSize; c++) {
+            //above only shrinks as the tier rises, and below only grows: once a row holds the set, so do the next
+            for (int t = lesserTop[c]; t >= 0 && orChanged(above[t * groupSize + c], greater); t--);
+            for (int t = greaterBottom[c]; t < tiers && orChanged(below[t * groupSize + c], lesser); t++);
+            for (int t = greaterBottom[c]; t < tiers; t++)
+                greaterUpTo[t][c >>> 6] |= 1L << c;
+        }
+        for (int c = 0; c < groupSize; c++) {
+            if (lesserTop[c] < 0)
+                continue;
+            for (int t = 0; anyPending && t <= lesserTop[c]; t++)
+                andNot(pending[t * groupSize + c], greaterUpTo[t]);
+            long[] row = attackRows[c];
+            long[] higher = greaterUpTo[lesserTop[c]];
+            for (int w = 0; w < attackWords; w++) {
+                long found = higher[w] & ~row[w];
+                if (found == 0)
+                    continue;
+                row[w] |= found;
+                for (; found != 0; found &= found - 1) {
+                    int d = (w << 6) + Long.numberOfTrailingZeros(found);
+                    attackCols[d][c >>> 6] |= 1L << c;
+                    for (int t = 0; t < tiers; t++) {
+                        if (t < greaterBottom[d] || t > lesserTop[c]) {
+                            pending[t * groupSize + c][w] |= 1L << d;
+                            anyPending = true;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private long[] single(int c) {
+        Arrays.fill(attacks, 0L);
+        attacks[c >>> 6] |= 1L << c;
+        return attacks;
+    }
+
+    private static void clear(long[][] rows) {
+        for (long[] row : rows)
+            Arrays.fill(row, 0L);
+    }
+
+    private static boolean isSet(long[] row, int k) {
+        return (row[k >>> 6] & (1L << k)) != 0;
+    }
+
+    private static boolean isEmpty(long[] row) {
+        for (long word : row) {
+            if (word != 0)
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean intersects(long[] a, long[] b) {
+        for (int w = 0; w < a.length; w++) {
+            if ((a[w] & b[w]) != 0)
+                return true;
+        }
+        return false;
+    }
+
+    private static void andNot(long[] target, long[] mask) {
+        for (int w = 0; w < target.length; w++)
+            target[w] &= ~mask[w];
+    }
+
+    private static void or(long[] target, long[] mask) {
+        for (int w = 0; w < target.length; w++)
+            target[w] |= mask[w];
+    }
+
+    /**Same as or, telling whether target changed*/
+    private static boolean orChanged(long[] target, long[] mask) {
+        long changed = 0;
+        for (int w = 0; w < target.length; w++) {
+            changed |= mask[w] & ~target[w];
+            target[w] |= mask[w];
+        }
+        return changed != 0;
+    }
+}
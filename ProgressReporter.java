@@ -0,0 +1,68 @@
+package soulsestimations;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**Prints the progress of a run every PERIOD_MILLIS from a daemon thread, so the thread adding up the trial results
+ * only publishes its latest figures and never waits on the console*/
+public class ProgressReporter implements AutoCloseable {
+    static final long PERIOD_MILLIS = 5_000;
+
+    private final long trials;
+    private final long t0 = System.currentTimeMillis();
+    private final ScheduledExecutorService timer;
+    private volatile Snapshot latest;
+    //only touched by the reporter thread, then by close() once it's gone
+    private Snapshot printed;
+
+    /**Figures published together, so they are always printed together*/
+    private static final class Snapshot {
+        final long completed;
+        final double mean;
+        final double halfWidth;
+
+        Snapshot(long completed, double mean, double halfWidth) {
+            this.completed = completed;
+            this.mean = mean;
+            this.halfWidth = halfWidth;
+        }
+    }
+
+    /**trials: the most the run will perform*/
+    public ProgressReporter(long trials) {
+        this.trials = trials;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "progress-reporter");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleAtFixedRate(this::print, PERIOD_MILLIS, PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**completed trials so far, with the current estimate of the mean and the half-width of its 99% CI*/
+    public void update(long completed, double mean, double halfWidth) {
+        latest = new Snapshot(completed, mean, halfWidth);
+    }
+
+    /**Stops the reporter, printing the last figures if they weren't yet*/
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        try {
+            timer.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        print();
+    }
+
+    private void print() {
+        Snapshot snapshot = latest;
+        if (snapshot == null || snapshot == printed)
+            return;
+        printed = snapshot;
+        System.out.printf("Completed %d/%d trials (elapsed %.1fs), mean %.3f ± %.3f%n", snapshot.completed, trials,
+        		(System.currentTimeMillis() - t0) / 1000.0, snapshot.mean, snapshot.halfWidth);
+    }
+}
@@ -0,0 +1,144 @@
+package soulsestimations;
+
+/**Histogram of the # of tests performed by every trial, from which quantiles are read to within RELATIVE_ERROR.
+ * Values below 2^BITS have a bucket each; above, every power of two [2^k, 2^(k+1)) is split into 2^(BITS-1)
+ * buckets of equal width, so a bucket is never wider than 2^-(BITS-1) of its values. The buckets of a power of two
+ * are only allocated once a value falls in it: a run of any length keeps a few KB.
+ * Sketches filled separately, by different workers, shards or processes, merge into the very sketch that one
+ * filled with all their values, since the buckets are the same for all of them*/
+public class QuantileSketch {
+    private static final int BITS = 10;
+    private static final int SUB_BUCKETS = 1 << BITS;
+    private static final int HALF = SUB_BUCKETS / 2;
+    //largest bucket width relative to the values it holds
+    public static final double RELATIVE_ERROR = 1.0 / HALF;
+
+    //blocks[0]: values 0 to 2^BITS - 1; blocks[s]: values v of 2^(BITS-1+s) <= v < 2^(BITS+s), by v >>> s
+    private final long[][] blocks = new long[32 - BITS + 1][];
+    private long count;
+    private int min = Integer.MAX_VALUE;
+    private int max = Integer.MIN_VALUE;
+
+    public void add(int value) {
+        if (value < 0)
+            throw new IllegalArgumentException("Only non-negative values can be sketched: " + value);
+        int shift = Math.max(0, 32 - Integer.numberOfLeadingZeros(value) - BITS);
+        long[] block = block(shift);
+        block[shift == 0 ? value : (value >>> shift) - HALF]++;
+        count++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**Adds every value other holds*/
+    public void merge(QuantileSketch other) {
+        for (int s = 0; s < blocks.length; s++) {
+            if (other.blocks[s] == null)
+                continue;
+            long[] block = block(s);
+            for (int i = 0; i < block.length; i++)
+                block[i] += other.blocks[s][i];
+        }
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**Smallest value added, exactly*/
+    public int getMin() {
+        checkNotEmpty();
+        return min;
+    }
+
+    /**Largest value added, exactly*/
+    public int getMax() {
+        checkNotEmpty();
+        return max;
+    }
+
+    /**The value of rank ceil(p * count) among the ones added, or the middle of its bucket if it isn't exact*/
+    public int quantile(double p) {
+        checkNotEmpty();
+        if (!(p >= 0.0 && p <= 1.0))
+            throw new IllegalArgumentException("Quantiles are between 0 and 1, not " + p);
+        long rank = Math.max(1, (long) Math.ceil(p * count));
+        long seen = 0;
+        for (int s = 0; s < blocks.length; s++) {
+            if (blocks[s] == null)
+                continue;
+            for (int i = 0; i < blocks[s].length; i++) {
+                seen += blocks[s][i];
+                if (seen >= rank) {
+                    long low = s == 0 ? i : (long) (i + HALF) << s;
+                    long middle = low + ((1L << s) - 1) / 2;
+                    return (int) Math.max(min, Math.min(max, middle));
+                }
+            }
+        }
+        return max;
+    }
+
+    /**"count min max" followed by a "bucket:count" pair for every bucket that isn't empty, separated by spaces, so it
+     * fits a field of a tab-separated checkpoint. decode gives the same sketch back*/
+    public String encode() {
+        StringBuilder encoded = new StringBuilder().append(count).append(' ').append(min).append(' ').append(max);
+        for (int s = 0; s < blocks.length; s++) {
+            if (blocks[s] == null)
+                continue;
+            for (int i = 0; i < blocks[s].length; i++) {
+                if (blocks[s][i] != 0)
+                    encoded.append(' ').append(s == 0 ? i : SUB_BUCKETS + (s - 1) * HALF + i).append(':')
+                    		.append(blocks[s][i]);
+            }
+        }
+        return encoded.toString();
+    }
+
+    public static QuantileSketch decode(String encoded) {
+        String[] fields = encoded.trim().split(" ");
+        if (fields.length < 3)
+            throw new IllegalArgumentException("Not an encoded sketch: " + encoded);
+        QuantileSketch sketch = new QuantileSketch();
+        sketch.count = Long.parseLong(fields[0]);
+        sketch.min = Integer.parseInt(fields[1]);
+        sketch.max = Integer.parseInt(fields[2]);
+        long total = 0;
+        for (int f = 3; f < fields.length; f++) {
+            String[] pair = fields[f].split(":");
+            int bucket = Integer.parseInt(pair[0]);
+            long n = Long.parseLong(pair[1]);
+            if (bucket < SUB_BUCKETS)
+                sketch.block(0)[bucket] += n;
+            else
+                sketch.block((bucket - SUB_BUCKETS) / HALF + 1)[(bucket - SUB_BUCKETS) % HALF] += n;
+            total += n;
+        }
+        if (total != sketch.count)
+            throw new IllegalArgumentException("The buckets of the sketch hold " + total + " values, not " + sketch.count);
+        return sketch;
+    }
+
+    /**"min a, p50 b, p90 c, p99 d, max e"*/
+    @Override
+    public String toString() {
+        if (count == 0)
+            return "empty";
+        return String.format("min %d, p50 %d, p90 %d, p99 %d, max %d", min, quantile(0.5), quantile(0.9),
+        		quantile(0.99), max);
+    }
+
+    private long[] block(int shift) {
+        if (blocks[shift] == null)
+            blocks[shift] = new long[shift == 0 ? SUB_BUCKETS : HALF];
+        return blocks[shift];
+    }
+
+    private void checkNotEmpty() {
+        if (count == 0)
+            throw new IllegalStateException("No value was added to the sketch");
+    }
+}
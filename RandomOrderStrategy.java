@@ -0,0 +1,69 @@
+package soulsestimations;
+
+import java.util.SplittableRandom;
+
+/**Tests every enemy attack still unresolved, in an order reshuffled for every character attack but the first.
+ * The shuffled order itself is the index of the candidates: it is walked once, skipping the enemy attacks the
+ * closure resolved meanwhile*/
+public class RandomOrderStrategy implements TestStrategy {
+    private final int characters;
+    private final int[] enemyIndices;
+    private boolean started;
+    private int current;
+    private int cursor;
+
+    public RandomOrderStrategy(int characters, int enemies) {
+        this.characters = characters;
+        this.enemyIndices = new int[enemies];
+        clear();
+    }
+
+    @Override
+    public void begin(int c, KnowledgeState less, SplittableRandom rnd) {
+        if (started)
+            MonteCarloHyperarmour.shuffleArray(enemyIndices, rnd);
+        started = true;
+        current = c;
+        cursor = 0;
+    }
+
+    @Override
+    public int next(KnowledgeState less, SplittableRandom rnd) {
+        while (cursor < enemyIndices.length) {
+            int e = enemyIndices[cursor++];
+            if (!less.get(current, e) && !less.get(e, current))
+                return e;
+        }
+        return -1;
+    }
+
+    @Override
+    public void end(int c, KnowledgeState less) {
+    }
+
+    /**The first character node of the next trial meets the enemy nodes in node order again*/
+    @Override
+    public void clear() {
+        for (int i = 0; i < enemyIndices.length; i++)
+            enemyIndices[i] = characters + i;
+        started = false;
+    }
+
+    /**{started, the order}: the next begin reshuffles the order it finds*/
+    @Override
+    public int[] save() {
+        int[] state = new int[1 + enemyIndices.length];
+        state[0] = started ? 1 : 0;
+        System.arraycopy(enemyIndices, 0, state, 1, enemyIndices.length);
+        return state;
+    }
+
+    @Override
+    public void restore(int[] state) {
+        if (state.length != 1 + enemyIndices.length)
+            throw new IllegalArgumentException("Not the state of a random tester of " + enemyIndices.length +
+            		" enemy nodes");
+        started = state[0] != 0;
+        System.arraycopy(state, 1, enemyIndices, 0, enemyIndices.length);
+    }
+}
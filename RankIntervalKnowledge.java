@@ -0,0 +1,288 @@
+package soulsestimations;
+
+import java.util.Arrays;
+
+/**Knowledge state that stores thresholds on the hidden values instead of the less(n, n') matrix.
+ * The tester classifies one character attack c at a time, so every character attack tested before c is resolved:
+ * less(c', e) holds for exactly the enemy attacks with D(e) >= H(c'). Besides its own observations A (c < a) and
+ * B (b < c), the closure can only reach c through one of these resolved nodes:
+ * less(c, e) iff e ∈ A or D(e) >= up, up being the lowest resolved H(c') > min D(A), and
+ * less(e, c) iff e ∈ B or D(e) < lo, lo being the highest resolved H(c') <= max D(B).
+ * Both thresholds are looked up in a Fenwick tree over the ranks of the resolved character values, so every
+ * observation costs O(log n) time, and the whole state O(n) memory.
+ * Only pairs of a character and an enemy node can be queried*/
+public class RankIntervalKnowledge implements KnowledgeState {
+    private final int characters;
+    private final int enemies;
+    private final int groupSize;
+    private double[] values;
+    //ascending values of the enemy nodes
+    private final double[] enemyValues;
+    //ascending distinct values of the character nodes in the first distinct slots, and the rank of every character
+    //node among them
+    private final double[] characterValues;
+    private int distinct;
+    private final int[] ranks;
+    //resolved character nodes per rank, in the first distinct + 1 slots
+    private final int[] tree;
+    private int treeStep;
+    private final boolean[] resolved;
+    //cursors[g]: first node of group g that may still be unresolved
+    private final int[] cursors;
+    private int cursor;
+    //the character node being tested, and what is known of it
+    private int current;
+    private double up;
+    private double lo;
+    //observed[e - C]: current + 1 if less(current, e) was observed, -(current + 1) if less(e, current) was
+    private final int[] observed;
+    //values of the observed enemy nodes that aren't implied by up and lo yet
+    private final DoubleHeap above;
+    private final DoubleHeap below;
+
+    public RankIntervalKnowledge(double[] values, int characters, int enemies, int groupSize) {
+        if (groupSize < 1 || characters % groupSize != 0)
+            throw new IllegalArgumentException(characters + " character nodes can't be split in groups of " + groupSize);
+        if (values.length != characters + enemies)
+            throw new IllegalArgumentException(values.length + " values for " + (characters + enemies) + " nodes");
+        this.characters = characters;
+        this.enemies = enemies;
+        this.groupSize = groupSize;
+        this.enemyValues = new double[enemies];
+        this.characterValues = new double[characters];
+        this.ranks = new int[characters];
+        this.tree = new int[characters + 1];
+        this.resolved = new boolean[characters];
+        this.cursors = new int[characters / groupSize];
+        this.observed = new int[enemies];
+        this.above = new DoubleHeap(enemies);
+        this.below = new DoubleHeap(enemies);
+        reset(values);
+    }
+
+    @Override
+    public boolean get(int a, int b) {
+        if (a < characters && b >= characters) {
+            if (resolved[a])
+                return values[a] <= values[b];
+            return a == current && (observed[b - characters] == a + 1 || values[b] >= up);
+        }
+        if (a >= characters && b < characters) {
+            if (resolved[b])
+                return values[a] < values[b];
+            return b == current && (observed[a - characters] == -(b + 1) || values[a] < lo);
+        }
+        throw new IllegalArgumentException("Only character-enemy pairs are tracked: " + a + ", " + b);
+    }
+
+    @Override
+    public void applyTransitiveClosure(int u, int v) {
+        if (get(u, v))
+            return;
+        int c = Math.min(u, v);
+        if (c != current) {
+            if (current >= 0 && !resolved[current])
+                throw new IllegalStateException("Character node " + current + " isn't resolved yet, " + c + " can't be tested");
+            startTesting(c);
+        }
+        if (u == c) {
+            observed[v - characters] = c + 1;
+            //above holds negated values, so that its top is the highest one
+            above.push(-values[v]);
+            up = Math.min(up, higherResolved(values[v]));
+            while (above.size() > 0 && -above.peek() >= up)
+                above.pop();
+        } else {
+            observed[u - characters] = -(c + 1);
+            below.push(values[u]);
+            lo = Math.max(lo, lowerOrEqualResolved(values[u]));
+            while (below.size() > 0 && below.peek() < lo)
+                below.pop();
+        }
+        if (unresolvedEnemies(c) == 0) {
+            resolved[c] = true;
+            for (int i = ranks[c] + 1; i <= distinct; i += i & -i)
+                tree[i]++;
+        }
+    }
+
+    @Override
+    public int unresolvedEnemies(int c) {
+        if (resolved[c])
+            return 0;
+        if (c != current)
+            return enemies;
+        int greater = enemies - lowerBound(enemyValues, up) + above.size();
+        int lesser = lowerBound(enemyValues, lo) + below.size();
+        return enemies - greater - lesser;
+    }
+
+    @Override
+    public boolean isGroupResolved(int g) {
+        int end = (g + 1) * groupSize;
+        while (cursors[g] < end && resolved[cursors[g]])
+            cursors[g]++;
+        return cursors[g] == end;
+    }
+
+    @Override
+    public boolean isAllResolved() {
+        while (cursor < characters && resolved[cursor])
+            cursor++;
+        return cursor == characters;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(tree, 0);
+        //with no enemy attacks there is nothing to learn
+        Arrays.fill(resolved, enemies == 0);
+        for (int g = 0; g < cursors.length; g++)
+            cursors[g] = g * groupSize;
+        cursor = 0;
+        Arrays.fill(observed, 0);
+        current = -1;
+        up = Double.POSITIVE_INFINITY;
+        lo = Double.NEGATIVE_INFINITY;
+        above.clear();
+        below.clear();
+    }
+
+    /**Sorts the new values in place, so that a state reused for trial after trial allocates nothing*/
+    @Override
+    public void reset(double[] values) {
+        if (values.length != characters + enemies)
+            throw new IllegalArgumentException(values.length + " values for " + (characters + enemies) + " nodes");
+        this.values = values;
+        System.arraycopy(values, characters, enemyValues, 0, enemies);
+        Arrays.sort(enemyValues);
+        System.arraycopy(values, 0, characterValues, 0, characters);
+        Arrays.sort(characterValues);
+        distinct = 0;
+        for (int c = 0; c < characters; c++) {
+            if (distinct == 0 || Double.compare(characterValues[distinct - 1], characterValues[c]) != 0)
+                characterValues[distinct++] = characterValues[c];
+        }
+        for (int c = 0; c < characters; c++)
+            ranks[c] = Arrays.binarySearch(characterValues, 0, distinct, values[c]);
+        treeStep = Integer.highestOneBit(Math.max(distinct, 1));
+        clear();
+    }
+
+    private void startTesting(int c) {
+        current = c;
+        up = Double.POSITIVE_INFINITY;
+        lo = Double.NEGATIVE_INFINITY;
+        above.clear();
+        below.clear();
+    }
+
+    /**Lowest value of a resolved character node above x, or +∞*/
+    private double higherResolved(double x) {
+        int count = prefix(upperBound(characterValues, distinct, x));
+        return count == total() ? Double.POSITIVE_INFINITY : characterValues[select(count + 1)];
+    }
+
+    /**Highest value of a resolved character node not above x, or -∞*/
+    private double lowerOrEqualResolved(double x) {
+        int count = prefix(upperBound(characterValues, distinct, x));
+        return count == 0 ? Double.NEGATIVE_INFINITY : characterValues[select(count)];
+    }
+
+    /**# of resolved character nodes with rank < r*/
+    private int prefix(int r) {
+        int sum = 0;
+        for (int i = r; i > 0; i -= i & -i)
+            sum += tree[i];
+        return sum;
+    }
+
+    private int total() {
+        return prefix(distinct);
+    }
+
+    /**Rank of the k-th lowest resolved character node, k >= 1*/
+    private int select(int k) {
+        int pos = 0;
+        for (int step = treeStep; step > 0; step >>= 1) {
+            if (pos + step <= distinct && tree[pos + step] < k) {
+                pos += step;
+                k -= tree[pos];
+            }
+        }
+        return pos;
+    }
+
+    /**First index of a value >= x*/
+    private static int lowerBound(double[] sorted, double x) {
+        int low = 0, high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] < x)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**First index of a value > x among sorted[0, length)*/
+    private static int upperBound(double[] sorted, int length, double x) {
+        int low = 0, high = length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] <= x)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**Binary min-heap of primitive doubles*/
+    private static class DoubleHeap {
+        private final double[] heap;
+        private int size;
+
+        DoubleHeap(int capacity) {
+            this.heap = new double[capacity];
+        }
+
+        int size() {
+            return size;
+        }
+
+        double peek() {
+            return heap[0];
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        void push(double x) {
+            int i = size++;
+            while (i > 0 && heap[(i - 1) >>> 1] > x) {
+                heap[i] = heap[(i - 1) >>> 1];
+                i = (i - 1) >>> 1;
+            }
+            heap[i] = x;
+        }
+
+        double pop() {
+            double top = heap[0];
+            double last = heap[--size];
+            int i = 0;
+            for (int child = 1; child < size; child = 2 * i + 1) {
+                if (child + 1 < size && heap[child + 1] < heap[child])
+                    child++;
+                if (heap[child] >= last)
+                    break;
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = last;
+            return top;
+        }
+    }
+}
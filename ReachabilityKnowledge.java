@@ -0,0 +1,241 @@
+package soulsestimations;
+
+import java.util.Arrays;
+
+/**Knowledge state that stores the observations themselves, as the edges u -> v of less(u, v), instead of closing
+ * the relation after each of them: less(a, b) holds iff b can be reached from a. The rows of KnowledgeMatrix, every
+ * node above x and every node below it, are only worked out for the nodes x that get queried (the character node
+ * being tested, the next one the stopping checks look at) and memoized, by a depth-first search that stops at the
+ * memoized nodes it meets, whose rows it takes whole. A memoized row is kept up to date rather than dropped: an
+ * observation less(u, v) ORs the greater set of v into the rows of the memoized nodes below u, and the lesser set of
+ * u into those above v, so the closure only writes the rows somebody looks at, while the nodes nobody queried yet,
+ * e.g. the enemy attacks not tested so far, cost nothing but their edges.
+ * The rows and the edge arrays are kept from trial to trial, so a reused state allocates nothing once it has seen
+ * its longest trial*/
+public class ReachabilityKnowledge implements KnowledgeState {
+    //edges an end of an observation needs to be memoized by it: below, searching it costs less than keeping its rows
+    private static final int MEMOIZE_DEGREE = 128;
+    private final int nodes;
+    private final int words;
+    private final int characters;
+    private final int groupSize;
+    //outHead[n]: last edge out of n, inHead[n]: last edge into n, -1 if none; each edge links to the previous one of
+    //its source in nextOut and to the previous one of its target in nextIn
+    private final int[] outHead;
+    private final int[] inHead;
+    private int[] edgeFrom;
+    private int[] edgeTo;
+    private int[] nextOut;
+    private int[] nextIn;
+    private int edges;
+    //# of edges of every node
+    private final int[] degree;
+    //the memoized nodes, and their rows: above[x] holds every k such that less(x, k), below[x] every j such that
+    //less(j, x). Rows are allocated the first time their node is memoized
+    private final long[] memoized;
+    private final long[][] above;
+    private final long[][] below;
+    //scratch sets of the closure being applied, and the stack of the searches
+    private final long[] lesser;
+    private final long[] greater;
+    private final int[] stack;
+    //bits of the enemy nodes, all of which lie in words firstEnemyWord to words
+    private final long[] enemyMask;
+    private final int firstEnemyWord;
+    //cursors[g]: first node of group g that may still be unresolved
+    private final int[] cursors;
+    //first character node that may still be unresolved
+    private int cursor;
+
+    public ReachabilityKnowledge(int characters, int enemies, int groupSize) {
+        if (groupSize < 1 || characters % groupSize != 0)
+            throw new IllegalArgumentException(characters + " character nodes can't be split in groups of " +
+            		groupSize);
+        this.nodes = characters + enemies;
+        this.words = (nodes + 63) >>> 6;
+        this.characters = characters;
+        this.groupSize = groupSize;
+        this.outHead = new int[nodes];
+        this.inHead = new int[nodes];
+        this.degree = new int[nodes];
+        int capacity = Math.max(nodes, 16);
+        this.edgeFrom = new int[capacity];
+        this.edgeTo = new int[capacity];
+        this.nextOut = new int[capacity];
+        this.nextIn = new int[capacity];
+        this.memoized = new long[words];
+        this.above = new long[nodes][];
+        this.below = new long[nodes][];
+        this.lesser = new long[words];
+        this.greater = new long[words];
+        this.stack = new int[nodes];
+        this.enemyMask = new long[words];
+        for (int e = characters; e < nodes; e++)
+            enemyMask[e >>> 6] |= 1L << e;
+        this.firstEnemyWord = characters >>> 6;
+        this.cursors = new int[characters / groupSize];
+        clear();
+    }
+
+    public int size() {
+        return nodes;
+    }
+
+    /**# of enemy nodes e for which neither less(c, e) nor less(e, c) is known. Memoizes c*/
+    @Override
+    public int unresolvedEnemies(int c) {
+        memoize(c);
+        long[] row = above[c];
+        long[] col = below[c];
+        int resolved = 0;
+        for (int w = firstEnemyWord; w < words; w++)
+            resolved += Long.bitCount((row[w] | col[w]) & enemyMask[w]);
+        return nodes - characters - resolved;
+    }
+
+    /**Stops at the first word holding an unresolved enemy node. Memoizes c*/
+    @Override
+    public boolean isResolved(int c) {
+        memoize(c);
+        return !BitRows.anyMissing(above[c], below[c], enemyMask, firstEnemyWord, words);
+    }
+
+    /**∀i(i ∈ G -> ∀j(j ∈ E -> less(i,j) OR less(j,i))), G being the character nodes of group g*/
+    @Override
+    public boolean isGroupResolved(int g) {
+        int end = (g + 1) * groupSize;
+        while (cursors[g] < end && isResolved(cursors[g]))
+            cursors[g]++;
+        return cursors[g] == end;
+    }
+
+    /**∀i(i ∈ C -> ∀j(j ∈ E -> less(i,j) OR less(j,i)))*/
+    @Override
+    public boolean isAllResolved() {
+        while (cursor < characters && isResolved(cursor))
+            cursor++;
+        return cursor == characters;
+    }
+
+    /**less(a, b), read from the row of a or b if either is memoized, else from the row of a, which gets memoized:
+     * the testers ask about the character node being tested against every enemy node*/
+    @Override
+    public boolean get(int a, int b) {
+        if (!isMemoized(a) && isMemoized(b))
+            return (below[b][a >>> 6] & (1L << a)) != 0;
+        memoize(a);
+        return (above[a][b >>> 6] & (1L << b)) != 0;
+    }
+
+    /** ∀j[(less(j,u) OR j = u) -> ∀k[(less(v,k) OR k = v) -> less(j,k)]]
+     * Records the edge u -> v, then ORs the greater set into the row of every memoized lesser node, and the lesser
+     * set into the row of every memoized greater node. The sets are read from the rows of u and v, or searched for if
+     * they aren't memoized; an end with MEMOIZE_DEGREE edges or more, an enemy node tested many times, is memoized
+     * first, as a search would go through all of its edges*/
+    @Override
+    public void applyTransitiveClosure(int u, int v) {
+        //the memoized rows are kept closed, so if less(u, v) is known they already hold everything it implies
+        if (get(u, v))
+            return;
+        if (degree[u] >= MEMOIZE_DEGREE)
+            memoize(u);
+        if (degree[v] >= MEMOIZE_DEGREE)
+            memoize(v);
+        reach(u, false, lesser);
+        reach(v, true, greater);
+        lesser[u >>> 6] |= 1L << u;
+        greater[v >>> 6] |= 1L << v;
+        addEdge(u, v);
+        for (int w = 0; w < words; w++) {
+            for (long bits = lesser[w] & memoized[w]; bits != 0; bits &= bits - 1)
+                BitRows.or(above[(w << 6) + Long.numberOfTrailingZeros(bits)], greater, words);
+        }
+        for (int w = 0; w < words; w++) {
+            for (long bits = greater[w] & memoized[w]; bits != 0; bits &= bits - 1)
+                BitRows.or(below[(w << 6) + Long.numberOfTrailingZeros(bits)], lesser, words);
+        }
+    }
+
+    /**Forgets every relation, so the state can be reused for another trial*/
+    @Override
+    public void clear() {
+        Arrays.fill(outHead, -1);
+        Arrays.fill(inHead, -1);
+        Arrays.fill(degree, 0);
+        edges = 0;
+        Arrays.fill(memoized, 0L);
+        for (int g = 0; g < cursors.length; g++)
+            cursors[g] = g * groupSize;
+        cursor = 0;
+    }
+
+    /**Same as clear(): the edges don't depend on the values*/
+    @Override
+    public void reset(double[] values) {
+        clear();
+    }
+
+    private boolean isMemoized(int x) {
+        return (memoized[x >>> 6] & (1L << x)) != 0;
+    }
+
+    /**Works out the rows of x, unless it's memoized already*/
+    private void memoize(int x) {
+        if (isMemoized(x))
+            return;
+        if (above[x] == null) {
+            above[x] = new long[words];
+            below[x] = new long[words];
+        }
+        reach(x, true, above[x]);
+        reach(x, false, below[x]);
+        memoized[x >>> 6] |= 1L << x;
+    }
+
+    /**Every node above x (up) or below it into target, x excluded: its row if x is memoized, else a depth-first
+     * search along the edges, which takes the row of every memoized node it meets instead of going past it*/
+    private void reach(int x, boolean up, long[] target) {
+        if (isMemoized(x)) {
+            System.arraycopy(up ? above[x] : below[x], 0, target, 0, words);
+            return;
+        }
+        Arrays.fill(target, 0L);
+        int[] head = up ? outHead : inHead;
+        int[] next = up ? nextOut : nextIn;
+        int[] ends = up ? edgeTo : edgeFrom;
+        long[][] rows = up ? above : below;
+        int top = 0;
+        stack[top++] = x;
+        while (top > 0) {
+            for (int edge = head[stack[--top]]; edge >= 0; edge = next[edge]) {
+                int n = ends[edge];
+                if ((target[n >>> 6] & (1L << n)) != 0)
+                    continue;
+                target[n >>> 6] |= 1L << n;
+                if (isMemoized(n))
+                    BitRows.or(target, rows[n], words);
+                else
+                    stack[top++] = n;
+            }
+        }
+    }
+
+    private void addEdge(int u, int v) {
+        if (edges == edgeFrom.length) {
+            int capacity = 2 * edges;
+            edgeFrom = Arrays.copyOf(edgeFrom, capacity);
+            edgeTo = Arrays.copyOf(edgeTo, capacity);
+            nextOut = Arrays.copyOf(nextOut, capacity);
+            nextIn = Arrays.copyOf(nextIn, capacity);
+        }
+        edgeFrom[edges] = u;
+        edgeTo[edges] = v;
+        nextOut[edges] = outHead[u];
+        nextIn[edges] = inHead[v];
+        outHead[u] = edges;
+        inHead[v] = edges;
+        degree[u]++;
+        degree[v]++;
+        edges++;
+    }
+}
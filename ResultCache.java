@@ -0,0 +1,217 @@
+package soulsestimations;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.function.BooleanSupplier;
+
+/**On-disk store of the # of tests performed by every trial of a run, so that a run that was done before, or a sweep
+ * overlapping it, reads its results instead of computing them again. A run is keyed by everything the result of
+ * trial t depends on: the scenario, the engine, the tester, the worlds the sampling mode draws, the master seed and
+ * VERSION.
+ * The # of trials and the target precision aren't part of the key: trial t gives the same result however many are
+ * run, so a longer run reads the trials it finds and tops them up, and a shorter one reads a prefix.
+ * Each key is a file named after its SHA-256 in the cache directory, holding a header with the key and the results
+ * as 32-bit integers, memory-mapped for reading and appending. The file is locked while in use: a second process
+ * running the same key goes without the cache.
+ * The cache is opt-in: runs only use it when the hyperarmour.cache system property names the directory, e.g.
+ * -Dhyperarmour.cache=~/.cache/hyperarmour, as the mains seed themselves with System.nanoTime() unless given a seed,
+ * and a file keyed by a seed nobody asks for again is never read*/
+public class ResultCache implements AutoCloseable {
+    /**Bump whenever a change to the models alters the result of a trial, so older files aren't read any more*/
+    public static final int VERSION = 1;
+
+    private static final int MAGIC = 0x48415243;
+    //magic, key length, # of results
+    private static final int HEADER = 16;
+    private static final int INITIAL_CAPACITY = 4096;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final FileLock lock;
+    private final int dataStart;
+    private MappedByteBuffer buffer;
+    private long capacity;
+    private long size;
+
+    private ResultCache(Path file, FileChannel channel, FileLock lock, String key) throws IOException {
+        this.file = file;
+        this.channel = channel;
+        this.lock = lock;
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        this.dataStart = (HEADER + keyBytes.length + 3) & ~3;
+        if (channel.size() == 0) {
+            map(INITIAL_CAPACITY);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, keyBytes.length);
+            buffer.putLong(8, 0L);
+            buffer.put(HEADER, keyBytes);
+        } else {
+            //the header is read, not mapped: mapping a file for writing grows it, and a foreign file is left as it is
+            long results = (channel.size() - dataStart) / Integer.BYTES;
+            ByteBuffer header = ByteBuffer.allocate(dataStart).order(ByteOrder.LITTLE_ENDIAN);
+            if (channel.size() >= dataStart) {
+                for (int read = 0; read >= 0 && header.hasRemaining(); )
+                    read = channel.read(header, header.position());
+            }
+            if (header.hasRemaining() || header.getInt(0) != MAGIC || header.getInt(4) != keyBytes.length)
+                throw new IllegalStateException(file + " isn't a result cache of " + key + ": delete it");
+            byte[] stored = new byte[keyBytes.length];
+            header.get(HEADER, stored);
+            long cached = header.getLong(8);
+            if (!key.equals(new String(stored, StandardCharsets.UTF_8)) || cached < 0 || cached > results)
+                throw new IllegalStateException(file + " isn't a result cache of " + key + ": delete it");
+            map(results);
+            this.size = cached;
+        }
+    }
+
+    /**A cache that holds nothing and keeps nothing*/
+    private ResultCache() {
+        this.file = null;
+        this.channel = null;
+        this.lock = null;
+        this.dataStart = 0;
+    }
+
+    /**The results of the run keyed by scenario, engine, strategy, sampling and masterSeed, in the cache directory,
+     * or a cache that keeps nothing if hyperarmour.cache isn't set*/
+    public static ResultCache open(Scenario scenario, KnowledgeState.Engine engine, TestStrategy.Kind strategy,
+    		Sampling sampling, long masterSeed) {
+        String directory = System.getProperty("hyperarmour.cache", "off");
+        if (directory.equals("off"))
+            return new ResultCache();
+        if (directory.startsWith("~"))
+            directory = System.getProperty("user.home") + directory.substring(1);
+        String key = key(scenario, engine, strategy, sampling, masterSeed);
+        try {
+            Files.createDirectories(Paths.get(directory));
+            Path file = Paths.get(directory, sha256(key) + ".results");
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            		StandardOpenOption.WRITE);
+            FileLock lock;
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                lock = null;
+            }
+            if (lock == null) {
+                channel.close();
+                System.out.println(file + " is in use, running without the result cache");
+                return new ResultCache();
+            }
+            try {
+                return new ResultCache(file, channel, lock, key);
+            } catch (IOException | RuntimeException e) {
+                //a foreign or damaged file: let go of it, so it can be deleted as the message says
+                lock.release();
+                channel.close();
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't open the result cache in " + directory, e);
+        }
+    }
+
+    /**Everything the result of a trial of the run depends on, VERSION included*/
+    static String key(Scenario scenario, KnowledgeState.Engine engine, TestStrategy.Kind strategy, Sampling sampling,
+    		long masterSeed) {
+        //control variates are computed on the side, so they run on the very worlds of plain sampling
+        Sampling worlds = sampling == Sampling.CONTROL ? Sampling.PLAIN : sampling;
+        String[] tiers = scenario.describe();
+        return "v" + VERSION + ";" + (scenario.isMixed() ? "mixed" : "hyperarmour") + ";" + tiers[0] + ";" + tiers[1] +
+        		";" + tiers[2] + ";" + engine + ";" + strategy + ";" + worlds + ";" + masterSeed;
+    }
+
+    /**# of trials whose results are cached: trials 0 to size - 1*/
+    public long size() {
+        return size;
+    }
+
+    /**Passes the cached results of trials [0, trials) to sink, in trial order, and runs the others on runner,
+     * caching their results; stops after the first result that makes done true, as TrialRunner.run does.
+     * Returns the # of trials passed to the sink*/
+    public long run(TrialRunner runner, TrialRunner.Trial trial, long masterSeed, long trials, TrialRunner.Sink sink,
+    		BooleanSupplier done) {
+        long t = 0;
+        for (; t < Math.min(size, trials); t++) {
+            sink.accept(t, get(t));
+            if (done.getAsBoolean())
+                return t + 1;
+        }
+        if (t == trials)
+            return t;
+        return t + runner.run(trial, masterSeed, t, trials - t, (i, tests) -> {
+            record(i, tests);
+            sink.accept(i, tests);
+        }, done);
+    }
+
+    /**Result of trial t < size()*/
+    public int get(long trial) {
+        return buffer.getInt((int) (dataStart + trial * Integer.BYTES));
+    }
+
+    /**Caches the result of the trial if it's the first one missing, as results are kept in trial order without gaps*/
+    public void record(long trial, int testsPerformed) {
+        if (channel == null || trial != size)
+            return;
+        if (size == capacity)
+            map(capacity * 2);
+        buffer.putInt((int) (dataStart + size * Integer.BYTES), testsPerformed);
+        buffer.putLong(8, ++size);
+    }
+
+    /**Maps the header and room for the given # of results, growing the file if needed*/
+    private void map(long results) {
+        //a single mapping can't exceed 2 GB
+        long room = Math.min(Math.max(results, INITIAL_CAPACITY), (Integer.MAX_VALUE - dataStart) / Integer.BYTES);
+        if (room <= size)
+            throw new IllegalStateException(file + " is full");
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, dataStart + room * Integer.BYTES);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't map " + file, e);
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        capacity = room;
+    }
+
+    /**Writes the results to disk and trims the room left for more*/
+    @Override
+    public void close() {
+        if (channel == null)
+            return;
+        try {
+            buffer.force();
+            channel.truncate(dataStart + size * Integer.BYTES);
+            lock.release();
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't close " + file, e);
+        }
+    }
+
+    private static String sha256(String key) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8)))
+                hex.append(String.format("%02x", b));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is missing from this JVM", e);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package soulsestimations;
+
+/**Mean and variance of the trial results, updated one result at a time with Welford's algorithm,
+ * so a run of any length keeps constant memory*/
+public class RunningStats {
+    //two-sided 99% quantile of the normal distribution
+    public static final double Z99 = 2.58;
+
+    private long count;
+    private double mean;
+    //sum of squared differences from the current mean
+    private double m2;
+
+    public RunningStats() {
+    }
+
+    /**Resumes the statistics of count results, given their mean and getSumOfSquares*/
+    public RunningStats(long count, double mean, double m2) {
+        this.count = count;
+        this.mean = mean;
+        this.m2 = m2;
+    }
+
+    public void add(double x) {
+        count++;
+        double delta = x - mean;
+        mean += delta / count;
+        m2 += delta * (x - mean);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    /**Sum of squared differences from the mean, which is all that is needed besides count and mean to resume*/
+    public double getSumOfSquares() {
+        return m2;
+    }
+
+    /**Sample variance, NaN below two results*/
+    public double variance() {
+        return count > 1 ? m2 / (count - 1) : Double.NaN;
+    }
+
+    public double stddev() {
+        return Math.sqrt(variance());
+    }
+
+    public double standardError() {
+        return stddev() / Math.sqrt(count);
+    }
+
+    /**Half-width of the normal-approximation 99% confidence interval of the mean*/
+    public double halfWidth() {
+        return Z99 * standardError();
+    }
+}
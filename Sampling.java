@@ -0,0 +1,40 @@
+package soulsestimations;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**How the hidden worlds of the trials are sampled, and how their results are combined into an estimate.
+ * Every mode but PLAIN trades a little bookkeeping for a narrower confidence interval at the same # of trials*/
+public enum Sampling {
+    /**Independent worlds, plain mean*/
+    PLAIN,
+    /**Trials 2k and 2k + 1 share their random stream, but 2k + 1 samples the mirror image of the world of 2k:
+     * every shuffle is applied to the values sorted the other way round. The mean is taken over pair means*/
+    ANTITHETIC,
+    /**The first poise tier of the biased order is fixed in advance, w(s) trials out of every W being given
+     * tier s, and the strata means are weighted by w(s)/W*/
+    STRATIFIED,
+    /**The epistemic complexity of the trial's own tier order, whose expectation Poise.computeComplexity gives
+     * exactly, is used as a control variate*/
+    CONTROL;
+
+    /**Random stream of trial t under masterSeed*/
+    public SplittableRandom streamFor(long masterSeed, long trial) {
+        return TrialRunner.streamFor(masterSeed, this == ANTITHETIC ? trial & ~1L : trial);
+    }
+
+    /**Whether trial t samples the mirror image of its world*/
+    public boolean isMirrored(long trial) {
+        return this == ANTITHETIC && (trial & 1) == 1;
+    }
+
+    /**First tier of trial t, as an index in weights, or -1 if it is drawn at random*/
+    public int stratum(long trial, int[] weights) {
+        if (this != STRATIFIED)
+            return -1;
+        long slot = trial % Arrays.stream(weights).sum();
+        int s = 0;
+        for (long cumulative = weights[0]; slot >= cumulative; cumulative += weights[++s]);
+        return s;
+    }
+}
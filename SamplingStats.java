@@ -0,0 +1,136 @@
+package soulsestimations;
+
+import java.util.Arrays;
+
+/**Estimate of the mean # of tests under a Sampling mode, updated one trial at a time in constant memory.
+ * The effective sample size is the # of PLAIN trials that would give the same confidence interval*/
+public class SamplingStats {
+    private final Sampling sampling;
+    //every trial, as if sampled plainly
+    private final RunningStats all = new RunningStats();
+    //ANTITHETIC: pair means, and the first result of the pair still open
+    private final RunningStats pairs = new RunningStats();
+    private double pending;
+    //STRATIFIED: results per stratum, and the share of each stratum
+    private final RunningStats[] strata;
+    private final double[] shares;
+    //CONTROL: the known mean of the control, and the co-moments of (control, result)
+    private final double controlMean;
+    private double meanX;
+    private double meanY;
+    private double sxx;
+    private double sxy;
+    private double syy;
+
+    /**weights: of the strata, used by STRATIFIED only; controlMean: E[control], used by CONTROL only*/
+    public SamplingStats(Sampling sampling, int[] weights, double controlMean) {
+        this.sampling = sampling;
+        int total = Arrays.stream(weights).sum();
+        this.strata = new RunningStats[weights.length];
+        this.shares = new double[weights.length];
+        for (int s = 0; s < weights.length; s++) {
+            strata[s] = new RunningStats();
+            shares[s] = (double) weights[s] / total;
+        }
+        this.controlMean = controlMean;
+    }
+
+    /**Result y of trial t, with its stratum (STRATIFIED) or its control value x (CONTROL)*/
+    public void add(long trial, double y, int stratum, double x) {
+        all.add(y);
+        switch (sampling) {
+            case ANTITHETIC:
+                if ((trial & 1) == 0)
+                    pending = y;
+                else
+                    pairs.add((pending + y) / 2.0);
+                break;
+            case STRATIFIED:
+                strata[stratum].add(y);
+                break;
+            case CONTROL:
+                long n = all.getCount();
+                double dx = x - meanX;
+                double dy = y - meanY;
+                meanX += dx / n;
+                meanY += dy / n;
+                sxx += dx * (x - meanX);
+                sxy += dx * (y - meanY);
+                syy += dy * (y - meanY);
+                break;
+            default:
+                break;
+        }
+    }
+
+    public long getCount() {
+        return all.getCount();
+    }
+
+    /**Standard deviation of a single trial result*/
+    public double stddev() {
+        return all.stddev();
+    }
+
+    public double getMean() {
+        switch (sampling) {
+            case ANTITHETIC:
+                return pairs.getCount() > 0 ? pairs.getMean() : all.getMean();
+            case STRATIFIED:
+                if (!allStrataSampled())
+                    return all.getMean();
+                double mean = 0.0;
+                for (int s = 0; s < strata.length; s++) {
+                    if (shares[s] > 0)
+                        mean += shares[s] * strata[s].getMean();
+                }
+                return mean;
+            case CONTROL:
+                return sxx > 0 ? meanY - sxy / sxx * (meanX - controlMean) : all.getMean();
+            default:
+                return all.getMean();
+        }
+    }
+
+    /**Variance of the estimate of the mean, NaN until it can be estimated*/
+    public double varianceOfMean() {
+        switch (sampling) {
+            case ANTITHETIC:
+                return pairs.variance() / pairs.getCount();
+            case STRATIFIED:
+                if (!allStrataSampled())
+                    return Double.NaN;
+                double variance = 0.0;
+                for (int s = 0; s < strata.length; s++) {
+                    if (shares[s] > 0)
+                        variance += shares[s] * shares[s] * strata[s].variance() / strata[s].getCount();
+                }
+                return variance;
+            case CONTROL:
+                long n = all.getCount();
+                if (n < 3 || !(sxx > 0))
+                    return Double.NaN;
+                //residual variance of the regression of the results on the control
+                return (syy - sxy * sxy / sxx) / (n - 2) / n;
+            default:
+                return all.variance() / all.getCount();
+        }
+    }
+
+    /**Half-width of the normal-approximation 99% confidence interval of the mean*/
+    public double halfWidth() {
+        return RunningStats.Z99 * Math.sqrt(varianceOfMean());
+    }
+
+    public double effectiveSampleSize() {
+        return all.variance() / varianceOfMean();
+    }
+
+    private boolean allStrataSampled() {
+        for (int s = 0; s < strata.length; s++) {
+            if (shares[s] > 0 && strata[s].getCount() < 2)
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,134 @@
+package soulsestimations;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.stream.Collectors;
+
+import soulsestimations.Poise.Stance;
+
+/**One configuration of the Monte Carlo simulations: the hyperarmour and stance damage tiers, plus the poise tiers
+ * for MonteCarloMixed, or none for MonteCarloHyperarmour.
+ * A grid file holds one line per scenario, "name; poises; hyperarmours; damages", tiers being value:count pairs
+ * separated by spaces and poises being - for the hyperarmour model, e.g.
+ * baseline; -; 0:50 31:80 61:100 91:60 121:10; 30:150 60:200 90:200 120:50
+ * Any of the three fields can list alternatives separated by |, and the line then stands for every combination,
+ * named after the index of each alternative (name-p0-h1...). Blank lines and lines starting with # are skipped*/
+public class Scenario {
+    private final String name;
+    private final Stance[] poises;
+    private final Stance[] hyperarmours;
+    private final Stance[] damages;
+
+    public Scenario(String name, Stance[] poises, Stance[] hyperarmours, Stance[] damages) {
+        if (name.isEmpty() || name.chars().anyMatch(ch -> ch == ',' || Character.isWhitespace(ch)))
+            throw new IllegalArgumentException("Scenario names can't be empty, nor hold commas or spaces: " + name);
+        if (hyperarmours.length == 0 || damages.length == 0)
+            throw new IllegalArgumentException(name + " needs both hyperarmour and stance damage tiers");
+        for (Stance[] tiers : new Stance[][] {poises, hyperarmours, damages}) {
+            if (Arrays.stream(tiers).anyMatch(s -> s.getCount() < 1 || s.getValue() < 0))
+                throw new IllegalArgumentException(name + ": tiers need a non-negative value and a positive count");
+        }
+        if (Arrays.stream(poises).mapToInt(Stance::getValue).distinct().count() != poises.length)
+            throw new IllegalArgumentException(name + ": every poise tier needs its own value");
+        this.name = name;
+        this.poises = poises;
+        this.hyperarmours = hyperarmours;
+        this.damages = damages;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**Whether this is a scenario of MonteCarloMixed rather than MonteCarloHyperarmour*/
+    public boolean isMixed() {
+        return poises.length > 0;
+    }
+
+    /**# of tests the blind tester would perform: L*M*N, or M*N without poise tiers*/
+    public double naive() {
+        return (double) Math.max(poises.length, 1) * MonteCarloHyperarmour.count(hyperarmours)
+        		* MonteCarloHyperarmour.count(damages);
+    }
+
+    /**Runs a single trial of the simulation this scenario configures*/
+    public int runOneTrial(SplittableRandom rnd, KnowledgeState.Engine engine, TestStrategy.Kind strategy) {
+        if (isMixed())
+            return MonteCarloMixed.runOneTrial(poises, hyperarmours, damages, rnd, false, -1, engine, strategy);
+        return MonteCarloHyperarmour.runOneTrial(hyperarmours, damages, rnd, false, engine, strategy);
+    }
+
+    /**The poise, hyperarmour and stance damage fields, in grid file notation*/
+    public String[] describe() {
+        return new String[] {isMixed() ? format(poises) : "-", format(hyperarmours), format(damages)};
+    }
+
+    public static List<Scenario> read(Path grid) throws IOException {
+        return parse(Files.readAllLines(grid));
+    }
+
+    public static List<Scenario> parse(List<String> lines) {
+        List<Scenario> scenarios = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+            String[] fields = line.split(";", -1);
+            if (fields.length != 4)
+                throw new IllegalArgumentException("Line " + (i + 1) + ": expected name; poises; hyperarmours; damages");
+            try {
+                String name = fields[0].trim();
+                List<Stance[]> poises = alternatives(fields[1]);
+                List<Stance[]> hyperarmours = alternatives(fields[2]);
+                List<Stance[]> damages = alternatives(fields[3]);
+                for (int p = 0; p < poises.size(); p++) {
+                    for (int h = 0; h < hyperarmours.size(); h++) {
+                        for (int d = 0; d < damages.size(); d++) {
+                            String combination = name + (poises.size() > 1 ? "-p" + p : "") +
+                            		(hyperarmours.size() > 1 ? "-h" + h : "") + (damages.size() > 1 ? "-d" + d : "");
+                            if (!names.add(combination))
+                                throw new IllegalArgumentException("Scenario " + combination + " is defined twice");
+                            scenarios.add(new Scenario(combination, poises.get(p), hyperarmours.get(h), damages.get(d)));
+                        }
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Line " + (i + 1) + ": " + e.getMessage(), e);
+            }
+        }
+        return scenarios;
+    }
+
+    private static List<Stance[]> alternatives(String field) {
+        List<Stance[]> alternatives = new ArrayList<>();
+        for (String alternative : field.split("\\|", -1))
+            alternatives.add(parseTiers(alternative.trim()));
+        return alternatives;
+    }
+
+    /**"value:count value:count ...", or "-" for no tiers*/
+    private static Stance[] parseTiers(String tiers) {
+        if (tiers.equals("-"))
+            return new Stance[0];
+        if (tiers.isEmpty())
+            throw new IllegalArgumentException("Missing tiers, use - for none");
+        return Arrays.stream(tiers.split("\\s+")).map(tier -> {
+            String[] parts = tier.split(":");
+            if (parts.length != 2)
+                throw new IllegalArgumentException("Expected value:count, not " + tier);
+            return new Stance(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+        }).toArray(Stance[]::new);
+    }
+
+    private static String format(Stance[] tiers) {
+        return Arrays.stream(tiers).map(s -> s.getValue() + ":" + s.getCount()).collect(Collectors.joining(" "));
+    }
+}
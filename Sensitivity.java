@@ -0,0 +1,248 @@
+package soulsestimations;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import soulsestimations.Poise.Stance;
+
+/**Sensitivity of the expected # of tests of MonteCarloHyperarmour or MonteCarloMixed to each of their tiers: the
+ * estimate for the count and for the value of every tier moved by -1 and +1, and the finite-difference derivatives.
+ * The trials of the model are run once, through the ResultCache, and their outcomes recorded together with the
+ * poise order of their world; every variant is then estimated from the recorded trials where it can be:
+ * the count of a poise tier only weighs the draw of the poise order, while the hyperarmours, stance damages and
+ * tester draw from the trial's stream after it exactly as before, so the recorded trials are reweighted by
+ * P'(order) / P(order), the likelihood ratio of the variant's poise order (self-normalized, with Kish's effective
+ * sample size);
+ * a value that leaves every comparison between node values as it was, e.g. a hyperarmour moving between two stance
+ * damages, leaves every trial as it was too, so the variant's estimate is the model's.
+ * The other variants, and the reweighted ones whose effective sample size falls below the minimum, are run afresh on
+ * the same master seed, so that they differ from the model on common random numbers. Among them are the counts of
+ * hyperarmour and stance damage tiers: they change the # of attacks, so no world of the variant is one of the model
+ * and there is no ratio to reweigh by*/
+public class Sensitivity {
+    //minimum effective sample size of a reweighted variant, in % of the trials, unless given
+    static final double MIN_ESS = 50;
+    private static final String[] FIELDS = {"poises", "hyperarmours", "damages"};
+
+    private final Scenario model;
+    //the poise, hyperarmour and stance damage tiers of the model
+    private final Stance[][] tiers;
+    private final int trials;
+    private final long masterSeed;
+    private final KnowledgeState.Engine engine;
+    private final TestStrategy.Kind strategy;
+    private final double minEss;
+    //the recorded trials: their # of tests and, for the mixed model, the poise order as indices in tiers[0]
+    private final int[] results;
+    private final int[][] orders;
+
+    /**An estimate of the expected # of tests, and how it was made*/
+    private static final class Estimate {
+        final double mean;
+        final double halfWidth;
+        final double effectiveSampleSize;
+        final String method;
+
+        Estimate(double mean, double halfWidth, double effectiveSampleSize, String method) {
+            this.mean = mean;
+            this.halfWidth = halfWidth;
+            this.effectiveSampleSize = effectiveSampleSize;
+            this.method = method;
+        }
+    }
+
+    public Sensitivity(boolean mixed, int trials, long masterSeed, KnowledgeState.Engine engine,
+    		TestStrategy.Kind strategy, double minEss) {
+        if (trials < 2)
+            throw new IllegalArgumentException("The estimates need two trials at least: " + trials);
+        this.model = mixed ? MonteCarloMixed.SCENARIO : MonteCarloHyperarmour.SCENARIO;
+        this.tiers = mixed ? new Stance[][] {MonteCarloMixed.POISES, MonteCarloMixed.HYPERARMOURS,
+        		MonteCarloMixed.DAMAGES} :
+        		new Stance[][] {new Stance[0], MonteCarloHyperarmour.HYPERARMOURS, MonteCarloHyperarmour.DAMAGES};
+        this.trials = trials;
+        this.masterSeed = masterSeed;
+        this.engine = engine;
+        this.strategy = strategy;
+        this.minEss = minEss;
+        this.results = new int[trials];
+        this.orders = new int[trials][];
+    }
+
+    /**Optional arguments: [model: hyperarmour or mixed] [trials, by default those of the model's main]
+     * [master seed] [worker threads] [engine: matrix, intervals, product, offheap or lazy]
+     * [tester: random, median or information] [minimum effective sample size of a reweighted variant, in % of the
+     * trials]*/
+    public static void main(String[] args) {
+        String name = args.length > 0 ? args[0].toLowerCase() : MonteCarloHyperarmour.SCENARIO.getName();
+        boolean mixed = name.equals(MonteCarloMixed.SCENARIO.getName());
+        if (!mixed && !name.equals(MonteCarloHyperarmour.SCENARIO.getName()))
+            throw new IllegalArgumentException("Unknown model " + args[0] + ": hyperarmour or mixed");
+        int trials = args.length > 1 ? Integer.parseInt(args[1]) :
+        		mixed ? MonteCarloMixed.TRIALS : MonteCarloHyperarmour.TRIALS;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : System.nanoTime();
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        KnowledgeState.Engine engine = args.length > 4 ? KnowledgeState.Engine.valueOf(args[4].toUpperCase()) :
+        		KnowledgeState.Engine.MATRIX;
+        TestStrategy.Kind strategy = args.length > 5 ? TestStrategy.Kind.valueOf(args[5].toUpperCase()) :
+        		TestStrategy.Kind.RANDOM;
+        double minEss = args.length > 6 ? Double.parseDouble(args[6]) : MIN_ESS;
+        System.out.printf("Sensitivity of the %s model, %d trials. Master seed %d, %d worker threads, %s engine, " +
+        		"%s tester, reweighting down to an effective sample size of %.0f%%%n", name, trials, seed, threads,
+        		engine, strategy, minEss);
+        long t0 = System.currentTimeMillis();
+        try (TrialRunner runner = new TrialRunner(threads)) {
+            new Sensitivity(mixed, trials, seed, engine, strategy, minEss).run(runner);
+        }
+        System.out.printf("Total runtime: %.1f s%n", (System.currentTimeMillis() - t0) / 1000.0);
+    }
+
+    /**Records the trials of the model, then prints the estimates of the variants of every tier*/
+    public void run(TrialRunner runner) {
+        RunningStats stats = new RunningStats();
+        try (ResultCache cache = ResultCache.open(model, engine, strategy, Sampling.PLAIN, masterSeed)) {
+            cache.run(runner, (t, rnd) -> model.runOneTrial(rnd, engine, strategy), masterSeed, trials, (t, tests) -> {
+                results[(int) t] = tests;
+                if (model.isMixed())
+                    orders[(int) t] = poiseOrder(TrialRunner.streamFor(masterSeed, t));
+                stats.add(tests);
+            }, () -> false);
+        }
+        Estimate base = new Estimate(stats.getMean(), stats.halfWidth(), trials, "recorded");
+        System.out.println();
+        print(model.getName(), "", base);
+        for (int f = 0; f < FIELDS.length; f++) {
+            for (int i = 0; i < tiers[f].length; i++) {
+                String tier = FIELDS[f] + " " + tiers[f][i].getValue() + ":" + tiers[f][i].getCount();
+                for (boolean count : new boolean[] {true, false}) {
+                    String variable = count ? "count" : "value";
+                    Estimate minus = estimate(f, i, count, -1, base, runner);
+                    Estimate plus = estimate(f, i, count, 1, base, runner);
+                    print(tier, variable + " -1", minus);
+                    print(tier, variable + " +1", plus);
+                    //central difference, or one-sided where the tier can't move one way
+                    if (minus != null && plus != null)
+                        System.out.printf("%-24s %-9s %12.3f%n", tier, "d/d" + variable, (plus.mean - minus.mean) / 2);
+                    else if (minus != null || plus != null)
+                        System.out.printf("%-24s %-9s %12.3f%n", tier, "d/d" + variable,
+                        		plus != null ? plus.mean - base.mean : base.mean - minus.mean);
+                }
+            }
+        }
+    }
+
+    /**The variant of the model whose tier i of field f has its count, or value, moved by delta, or null if the model
+     * has no such variant (a count below 1, a value below 0, two poise tiers of the same value)*/
+    private Estimate estimate(int f, int i, boolean count, int delta, Estimate base, TrialRunner runner) {
+        Stance[][] variant = new Stance[tiers.length][];
+        for (int g = 0; g < tiers.length; g++)
+            variant[g] = tiers[g].clone();
+        Stance tier = tiers[f][i];
+        variant[f][i] = count ? new Stance(tier.getValue(), tier.getCount() + delta) :
+        		new Stance(tier.getValue() + delta, tier.getCount());
+        Scenario scenario;
+        try {
+            scenario = new Scenario(model.getName() + "-" + FIELDS[f] + i + "-" + (count ? "count" : "value") +
+            		(delta > 0 ? "+" : "") + delta, variant[0], variant[1], variant[2]);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (count && f == 0) {
+            Estimate reweighted = reweight(variant[0]);
+            if (reweighted.effectiveSampleSize >= minEss / 100 * trials)
+                return reweighted;
+        }
+        if (!count && sameComparisons(tiers, variant))
+            return new Estimate(base.mean, base.halfWidth, trials, "same comparisons");
+        return simulate(scenario, runner);
+    }
+
+    /**The recorded trials weighted by P'(order) / P(order), P' being the probability of their poise order under the
+     * counts of poises. The half-width is the delta-method one of the self-normalized mean*/
+    private Estimate reweight(Stance[] poises) {
+        double[] weights = new double[trials];
+        double sum = 0, sumOfSquares = 0, weighted = 0;
+        for (int t = 0; t < trials; t++) {
+            weights[t] = Math.exp(logProbability(orders[t], poises) - logProbability(orders[t], tiers[0]));
+            sum += weights[t];
+            sumOfSquares += weights[t] * weights[t];
+            weighted += weights[t] * results[t];
+        }
+        double mean = weighted / sum;
+        double variance = 0;
+        for (int t = 0; t < trials; t++)
+            variance += weights[t] * weights[t] * (results[t] - mean) * (results[t] - mean);
+        variance /= sum * sum;
+        return new Estimate(mean, RunningStats.Z99 * Math.sqrt(variance), sum * sum / sumOfSquares, "reweighted");
+    }
+
+    /**Runs the trials of the variant on the master seed of the model*/
+    private Estimate simulate(Scenario scenario, TrialRunner runner) {
+        RunningStats stats = new RunningStats();
+        try (ResultCache cache = ResultCache.open(scenario, engine, strategy, Sampling.PLAIN, masterSeed)) {
+            cache.run(runner, (t, rnd) -> scenario.runOneTrial(rnd, engine, strategy), masterSeed, trials,
+            		(t, tests) -> stats.add(tests), () -> false);
+        }
+        return new Estimate(stats.getMean(), stats.halfWidth(), trials, "simulated");
+    }
+
+    /**The poise order drawn first by the trial of stream rnd, as indices in the poise tiers*/
+    private int[] poiseOrder(SplittableRandom rnd) {
+        int[] order = MonteCarloMixed.getBiasedPoiseOrder(tiers[0], rnd);
+        for (int k = 0; k < order.length; k++) {
+            int value = order[k];
+            for (int j = 0; j < tiers[0].length; j++) {
+                if (tiers[0][j].getValue() == value)
+                    order[k] = j;
+            }
+        }
+        return order;
+    }
+
+    /**log P(order) when the poise tiers are drawn without replacement, each with a chance proportional to its count*/
+    static double logProbability(int[] order, Stance[] poises) {
+        double remaining = MonteCarloHyperarmour.count(poises);
+        double log = 0;
+        for (int tier : order) {
+            log += Math.log(poises[tier].getCount() / remaining);
+            remaining -= poises[tier].getCount();
+        }
+        return log;
+    }
+
+    /**Whether every pair of node values, h·(1 + p/100) for the character nodes and d for the enemy nodes, compares
+     * the same way in both configurations of the same counts: their trials then perform the very same tests*/
+    static boolean sameComparisons(Stance[][] a, Stance[][] b) {
+        double[] x = nodeValues(a);
+        double[] y = nodeValues(b);
+        for (int i = 0; i < x.length; i++) {
+            for (int j = i + 1; j < x.length; j++) {
+                if (Double.compare(x[i], x[j]) != Double.compare(y[i], y[j]))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**The value of every (poise, hyperarmour) tier pair, a poise of 0 if there are none, then of every damage tier*/
+    private static double[] nodeValues(Stance[][] tiers) {
+        int[] poises = tiers[0].length == 0 ? new int[] {0} :
+        		Arrays.stream(tiers[0]).mapToInt(Stance::getValue).toArray();
+        double[] values = new double[poises.length * tiers[1].length + tiers[2].length];
+        int idx = 0;
+        for (int p : poises) {
+            for (Stance h : tiers[1])
+                values[idx++] = (double) h.getValue() * (1.0 + (double) p / 100.0);
+        }
+        for (Stance d : tiers[2])
+            values[idx++] = d.getValue();
+        return values;
+    }
+
+    private static void print(String tier, String variant, Estimate estimate) {
+        if (estimate == null)
+            System.out.printf("%-24s %-9s %12s%n", tier, variant, "n/a");
+        else
+            System.out.printf("%-24s %-9s %12.3f ± %9.3f  ESS %7.0f  %s%n", tier, variant, estimate.mean,
+            		estimate.halfWidth, estimate.effectiveSampleSize, estimate.method);
+    }
+}
@@ -0,0 +1,158 @@
+package soulsestimations;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**The results of trials [first, first + size) of a run of MonteCarloHyperarmour or MonteCarloMixed, as written by a
+ * shard run and read back by ShardMerge. Besides the results, 32-bit integers in trial order, the file holds what the
+ * run was: the model, master seed, engine, tester and sampling mode, and the ResultCache key of the run, so that only
+ * shards of the same run, made by the same version of the model, are merged*/
+public class ShardFile {
+    private static final int MAGIC = 0x48415348;
+
+    private final String key;
+    private final String model;
+    private final long masterSeed;
+    private final KnowledgeState.Engine engine;
+    private final TestStrategy.Kind strategy;
+    private final Sampling sampling;
+    private final long first;
+    private final int[] results;
+
+    public ShardFile(Scenario scenario, long masterSeed, KnowledgeState.Engine engine, TestStrategy.Kind strategy,
+    		Sampling sampling, long first, int[] results) {
+        this(ResultCache.key(scenario, engine, strategy, sampling, masterSeed), scenario.getName(), masterSeed, engine,
+        		strategy, sampling, first, results);
+    }
+
+    private ShardFile(String key, String model, long masterSeed, KnowledgeState.Engine engine,
+    		TestStrategy.Kind strategy, Sampling sampling, long first, int[] results) {
+        this.key = key;
+        this.model = model;
+        this.masterSeed = masterSeed;
+        this.engine = engine;
+        this.strategy = strategy;
+        this.sampling = sampling;
+        this.first = first;
+        this.results = results;
+    }
+
+    /**{k·S, S} for shard "k:S" of a run, which can't stop on a target precision and, when antithetic, has to hold
+     * whole pairs of trials*/
+    public static long[] range(String shard, Precision precision, Sampling sampling) {
+        String[] parts = shard.split(":");
+        if (parts.length != 2)
+            throw new IllegalArgumentException("Expected a shard as k:S, not " + shard);
+        long k = Long.parseLong(parts[0].trim());
+        long size = Long.parseLong(parts[1].trim());
+        if (k < 0 || size < 1 || size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Shard " + shard + ": k can't be negative, and S is 1 to " +
+            		Integer.MAX_VALUE);
+        if (precision != null)
+            throw new IllegalArgumentException("A shard runs a fixed range of trials: use - for the precision");
+        if (sampling == Sampling.ANTITHETIC && size % 2 != 0)
+            throw new IllegalArgumentException("Antithetic shards hold whole pairs of trials: S must be even");
+        return new long[] {Math.multiplyExact(k, size), size};
+    }
+
+    /**The name of the scenario of the main that ran the shard: hyperarmour or mixed*/
+    public String getModel() {
+        return model;
+    }
+
+    public long getMasterSeed() {
+        return masterSeed;
+    }
+
+    public KnowledgeState.Engine getEngine() {
+        return engine;
+    }
+
+    public TestStrategy.Kind getStrategy() {
+        return strategy;
+    }
+
+    public Sampling getSampling() {
+        return sampling;
+    }
+
+    /**First trial of the shard*/
+    public long getFirst() {
+        return first;
+    }
+
+    /**# of trials of the shard*/
+    public int size() {
+        return results.length;
+    }
+
+    /**Result of trial first + i*/
+    public int get(int i) {
+        return results[i];
+    }
+
+    /**Whether this is a shard of the run of scenario keyed by engine, strategy, sampling and masterSeed*/
+    public boolean isOf(Scenario scenario) {
+        return key.equals(ResultCache.key(scenario, engine, strategy, sampling, masterSeed));
+    }
+
+    /**Whether other is a shard of the same run*/
+    public boolean isSameRun(ShardFile other) {
+        return key.equals(other.key) && sampling == other.sampling;
+    }
+
+    /**Writes the shard to a temporary file next to the given one, then renames it, so that a file is either whole or
+     * missing*/
+    public void write(Path file) {
+        Path partial = file.resolveSibling(file.getFileName() + ".partial");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(partial)))) {
+            out.writeInt(MAGIC);
+            out.writeUTF(key);
+            out.writeUTF(model);
+            out.writeLong(masterSeed);
+            out.writeUTF(engine.name());
+            out.writeUTF(strategy.name());
+            out.writeUTF(sampling.name());
+            out.writeLong(first);
+            out.writeInt(results.length);
+            for (int tests : results)
+                out.writeInt(tests);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't write " + partial, e);
+        }
+        try {
+            Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't move " + partial + " to " + file, e);
+        }
+    }
+
+    public static ShardFile read(Path file) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC)
+                throw new IllegalArgumentException(file + " isn't a shard file");
+            String key = in.readUTF();
+            String model = in.readUTF();
+            long masterSeed = in.readLong();
+            KnowledgeState.Engine engine = KnowledgeState.Engine.valueOf(in.readUTF());
+            TestStrategy.Kind strategy = TestStrategy.Kind.valueOf(in.readUTF());
+            Sampling sampling = Sampling.valueOf(in.readUTF());
+            long first = in.readLong();
+            int[] results = new int[in.readInt()];
+            for (int i = 0; i < results.length; i++)
+                results[i] = in.readInt();
+            if (in.read() != -1)
+                throw new IllegalArgumentException(file + " holds more than its " + results.length + " results");
+            return new ShardFile(key, model, masterSeed, engine, strategy, sampling, first, results);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't read " + file, e);
+        }
+    }
+}
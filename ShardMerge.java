@@ -0,0 +1,63 @@
+package soulsestimations;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**Merges the shard files written by the shard runs of MonteCarloHyperarmour or MonteCarloMixed (see their main)
+ * into the statistics of the whole run, whichever processes or machines ran them. The shards have to be of the same
+ * run and, sorted, to cover trials 0 to T - 1 without gaps or overlaps: their results are then added up in trial
+ * order by the very code of the main, so the statistics are exactly those of a single process running T trials.
+ * Arguments: the shard files, in any order, e.g. hyperarmour-42-*.shard*/
+public class ShardMerge {
+    public static void main(String[] args) {
+        if (args.length == 0)
+            throw new IllegalArgumentException("Usage: ShardMerge <shard file>...");
+        long t0 = System.currentTimeMillis();
+        List<ShardFile> shards = new ArrayList<>();
+        for (String arg : args) {
+            ShardFile shard = ShardFile.read(Paths.get(arg));
+            if (!shards.isEmpty() && !shard.isSameRun(shards.get(0)))
+                throw new IllegalArgumentException(arg + " and " + args[0] + " are shards of different runs");
+            shards.add(shard);
+        }
+        ShardFile run = shards.get(0);
+        boolean mixed = run.getModel().equals(MonteCarloMixed.SCENARIO.getName());
+        if (!mixed && !run.getModel().equals(MonteCarloHyperarmour.SCENARIO.getName()))
+            throw new IllegalArgumentException("Unknown model " + run.getModel() + " in " + args[0]);
+        Scenario scenario = mixed ? MonteCarloMixed.SCENARIO : MonteCarloHyperarmour.SCENARIO;
+        if (!run.isOf(scenario))
+            throw new IllegalArgumentException("The shards were run with other tiers, or another version of the " +
+            		"model, than this " + scenario.getName() + " model");
+        shards.sort(Comparator.comparingLong(ShardFile::getFirst));
+        long trials = 0;
+        for (ShardFile shard : shards) {
+            if (shard.getFirst() > trials)
+                throw new IllegalArgumentException("Trials " + trials + " to " + (shard.getFirst() - 1) +
+                		" are missing");
+            if (shard.getFirst() < trials)
+                throw new IllegalArgumentException("Trial " + shard.getFirst() + " is in more than one shard");
+            trials += shard.size();
+        }
+        Sampling sampling = run.getSampling();
+        System.out.printf("Merging %d shards of %s: trials 0 to %d%n", shards.size(), scenario.getName(), trials - 1);
+        System.out.printf("Master seed %d, %s engine, %s sampling, %s tester%n", run.getMasterSeed(), run.getEngine(),
+        		sampling, run.getStrategy());
+        QuantileSketch sketch = new QuantileSketch();
+        SamplingStats stats = mixed ? MonteCarloMixed.newStats(sampling) : MonteCarloHyperarmour.newStats(sampling);
+        for (ShardFile shard : shards) {
+            for (int i = 0; i < shard.size(); i++) {
+                long t = shard.getFirst() + i;
+                if (mixed)
+                    MonteCarloMixed.add(stats, sketch, sampling, run.getMasterSeed(), t, shard.get(i));
+                else
+                    MonteCarloHyperarmour.add(stats, sketch, sampling, run.getMasterSeed(), t, shard.get(i));
+            }
+        }
+        if (mixed)
+            MonteCarloMixed.printResults(stats, sketch, t0);
+        else
+            MonteCarloHyperarmour.printResults(stats, sketch, run.getStrategy(), t0);
+    }
+}
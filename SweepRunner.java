@@ -0,0 +1,318 @@
+package soulsestimations;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**Runs every scenario of a grid file (see Scenario) for the same # of trials, on one pool of workers shared by all
+ * the (scenario, trial) units. Units are handed out in scenario order, and a worker moves on to the next scenario
+ * while the last trials of the previous one are still running, so no one waits at a scenario boundary.
+ * Every scenario runs the trials of the same master seed, as the mains do: its results don't depend on the rest of
+ * the grid, match a single run with that seed, and compare with the other scenarios on common random numbers.
+ * Results are added up in unit order, so they don't depend on the number of threads either.
+ * The row of a scenario is appended to the CSV file as soon as its last trial is in, and the statistics of every
+ * scenario are checkpointed next to it (CSV file + ".checkpoint") every CHECKPOINT_MILLIS: an interrupted sweep,
+ * started again with the same arguments, resumes from its checkpoint instead of starting over.
+ * With -Dhyperarmour.cache=<dir>, trial results are also kept in the ResultCache, so the trials of a scenario that an
+ * earlier sweep or main already ran with this master seed and engine are read rather than run again*/
+public class SweepRunner {
+	//trials of every scenario, unless given
+	static final long TRIALS = 2000;
+	private static final long CHECKPOINT_MILLIS = 10_000;
+	//units a worker may run ahead of the first unit whose result is still missing
+	private static final int LOOKAHEAD_PER_WORKER = 64;
+	private static final String HEADER = "scenario,poises,hyperarmours,damages,trials,mean,std_dev,ci99_low,ci99_high," +
+			"min,p50,p90,p99,max,naive,percent_of_naive";
+
+	private final List<Scenario> scenarios;
+	private final long trials;
+	private final long masterSeed;
+	private final KnowledgeState.Engine engine;
+	private final TestStrategy.Kind strategy;
+	private final int threads;
+	private final Path csv;
+	private final Path checkpoint;
+	private final RunningStats[] stats;
+	private final QuantileSketch[] sketches;
+
+	public SweepRunner(List<Scenario> scenarios, long trials, long masterSeed, KnowledgeState.Engine engine,
+			TestStrategy.Kind strategy, int threads, Path csv) {
+		if (trials < 1 || threads < 1)
+			throw new IllegalArgumentException("trials and threads must be positive: " + trials + ", " + threads);
+		this.scenarios = scenarios;
+		this.trials = trials;
+		this.masterSeed = masterSeed;
+		this.engine = engine;
+		this.strategy = strategy;
+		this.threads = threads;
+		this.csv = csv;
+		this.checkpoint = Paths.get(csv + ".checkpoint");
+		this.stats = new RunningStats[scenarios.size()];
+		this.sketches = new QuantileSketch[scenarios.size()];
+	}
+
+	/**Arguments: grid file, CSV file, then optionally [trials per scenario] [master seed] [worker threads]
+	 * [engine: matrix, intervals, product, offheap or lazy] [tester: random, median or information]*/
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2)
+			throw new IllegalArgumentException("Usage: SweepRunner grid-file csv-file [trials] [master seed] [threads] [engine] " +
+					"[tester]");
+		List<Scenario> scenarios = Scenario.read(Paths.get(args[0]));
+		long trials = args.length > 2 ? Long.parseLong(args[2]) : TRIALS;
+		long seed = args.length > 3 ? Long.parseLong(args[3]) : System.nanoTime();
+		int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+		KnowledgeState.Engine engine = args.length > 5 ? KnowledgeState.Engine.valueOf(args[5].toUpperCase()) :
+				KnowledgeState.Engine.MATRIX;
+		TestStrategy.Kind strategy = args.length > 6 ? TestStrategy.Kind.valueOf(args[6].toUpperCase()) :
+				TestStrategy.Kind.RANDOM;
+		System.out.printf("Sweep of %d scenarios, %d trials each. Master seed %d, %d worker threads, %s engine, %s tester%n",
+				scenarios.size(), trials, seed, threads, engine, strategy);
+		new SweepRunner(scenarios, trials, seed, engine, strategy, threads, Paths.get(args[1])).run();
+	}
+
+	/**Runs every trial the checkpoint doesn't hold yet, and writes the rows missing from the CSV file*/
+	public void run() throws IOException {
+		long t0 = System.currentTimeMillis();
+		resume();
+		Set<String> written = writtenRows();
+		ResultCache[] caches = new ResultCache[scenarios.size()];
+		try {
+			run(t0, written, caches);
+		} finally {
+			for (ResultCache cache : caches) {
+				if (cache != null)
+					cache.close();
+			}
+		}
+		System.out.printf("Sweep done in %.1f s, results in %s%n", (System.currentTimeMillis() - t0) / 1000.0, csv);
+		if (Instrumentation.ENABLED)
+			System.out.println(Instrumentation.summary());
+	}
+
+	private void run(long t0, Set<String> written, ResultCache[] caches) throws IOException {
+		//firstUnit[s]: first unit of scenario s, whose trials from resumedAt[s] on are the units up to firstUnit[s + 1]
+		long[] firstUnit = new long[scenarios.size() + 1];
+		long[] resumedAt = new long[scenarios.size()];
+		long resumed = 0, reused = 0;
+		for (int s = 0; s < scenarios.size(); s++) {
+			resumed += stats[s].getCount();
+			if (stats[s].getCount() < trials) {
+				caches[s] = ResultCache.open(scenarios.get(s), engine, strategy, Sampling.PLAIN, masterSeed);
+				for (; stats[s].getCount() < Math.min(caches[s].size(), trials); reused++) {
+					int tests = caches[s].get(stats[s].getCount());
+					stats[s].add(tests);
+					sketches[s].add(tests);
+				}
+			}
+			resumedAt[s] = stats[s].getCount();
+			firstUnit[s + 1] = firstUnit[s] + trials - resumedAt[s];
+		}
+		long units = firstUnit[scenarios.size()];
+		if (resumed > 0)
+			System.out.printf("Resuming from %s: %d trials done%n", checkpoint, resumed);
+		if (reused > 0)
+			System.out.printf("Reusing %d trials found in the result cache%n", reused);
+		if (units < trials * scenarios.size())
+			System.out.printf("%d trials left%n", units);
+
+		try (BufferedWriter out = Files.newBufferedWriter(csv, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+			if (written.isEmpty() && Files.size(csv) == 0) {
+				out.write(HEADER);
+				out.newLine();
+				out.flush();
+			}
+			int lookahead = threads * LOOKAHEAD_PER_WORKER;
+			Semaphore window = new Semaphore(lookahead);
+			AtomicLong next = new AtomicLong();
+			AtomicReference<RuntimeException> failure = new AtomicReference<>();
+			//{unit, tests performed}, or {-1} if a worker failed
+			BlockingQueue<long[]> results = new LinkedBlockingQueue<>();
+			ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+				Thread t = new Thread(r, "sweep-worker");
+				t.setDaemon(true);
+				return t;
+			});
+			for (int w = 0; w < threads; w++) {
+				pool.submit(() -> {
+					try {
+						for (window.acquire(); ; window.acquire()) {
+							long unit = next.getAndIncrement();
+							if (unit >= units)
+								return;
+							int s = scenarioOf(unit, firstUnit);
+							long trial = resumedAt[s] + unit - firstUnit[s];
+							int tests = scenarios.get(s).runOneTrial(TrialRunner.streamFor(masterSeed, trial), engine,
+									strategy);
+							results.add(new long[] {unit, tests});
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} catch (RuntimeException | Error e) {
+						failure.set(e instanceof RuntimeException ? (RuntimeException) e : new IllegalStateException(e));
+						results.add(new long[] {-1});
+					}
+				});
+			}
+
+			//results of the units after the first missing one, by unit % lookahead
+			int[] pending = new int[lookahead];
+			boolean[] ready = new boolean[lookahead];
+			long lastCheckpoint = System.currentTimeMillis();
+			int s = 0;
+			try {
+				for (long unit = 0; unit <= units; ) {
+					//scenarios with nothing left to run before the unit, this one included if it's the last
+					for (; s < scenarios.size() && (firstUnit[s + 1] <= unit); s++) {
+						if (!written.contains(scenarios.get(s).getName()))
+							writeRow(out, s, t0);
+					}
+					if (unit == units)
+						break;
+					long[] result = results.take();
+					if (result[0] < 0)
+						throw failure.get();
+					pending[(int) (result[0] % lookahead)] = (int) result[1];
+					ready[(int) (result[0] % lookahead)] = true;
+					for (; unit < units && ready[(int) (unit % lookahead)]; unit++) {
+						ready[(int) (unit % lookahead)] = false;
+						int of = scenarioOf(unit, firstUnit);
+						stats[of].add(pending[(int) (unit % lookahead)]);
+						sketches[of].add(pending[(int) (unit % lookahead)]);
+						caches[of].record(resumedAt[of] + unit - firstUnit[of], pending[(int) (unit % lookahead)]);
+						window.release();
+					}
+					if (System.currentTimeMillis() - lastCheckpoint >= CHECKPOINT_MILLIS) {
+						saveCheckpoint();
+						lastCheckpoint = System.currentTimeMillis();
+						System.out.printf("Checkpoint: %d/%d trials (elapsed %.1fs)%n", unit, units,
+								(lastCheckpoint - t0) / 1000.0);
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for trials", e);
+			} finally {
+				pool.shutdownNow();
+				saveCheckpoint();
+			}
+		}
+	}
+
+	/**Scenario s such that firstUnit[s] <= unit < firstUnit[s + 1]*/
+	private static int scenarioOf(long unit, long[] firstUnit) {
+		int low = 0, high = firstUnit.length - 2;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (firstUnit[mid] <= unit)
+				low = mid;
+			else
+				high = mid - 1;
+		}
+		return low;
+	}
+
+	private void writeRow(BufferedWriter out, int s, long t0) throws IOException {
+		Scenario scenario = scenarios.get(s);
+		RunningStats result = stats[s];
+		QuantileSketch sketch = sketches[s];
+		String[] tiers = scenario.describe();
+		out.write(String.format(Locale.ROOT, "%s,%s,%s,%s,%d,%.3f,%.3f,%.3f,%.3f,%d,%d,%d,%d,%d,%.0f,%.3f",
+				scenario.getName(), tiers[0], tiers[1], tiers[2], result.getCount(), result.getMean(), result.stddev(),
+				result.getMean() - result.halfWidth(), result.getMean() + result.halfWidth(), sketch.getMin(),
+				sketch.quantile(0.5), sketch.quantile(0.9), sketch.quantile(0.99), sketch.getMax(), scenario.naive(),
+				100.0 * result.getMean() / scenario.naive()));
+		out.newLine();
+		out.flush();
+		System.out.printf("%s: mean %.3f ± %.3f (elapsed %.1fs)%n", scenario.getName(), result.getMean(),
+				result.halfWidth(), (System.currentTimeMillis() - t0) / 1000.0);
+	}
+
+	/**Names of the scenarios the CSV file already has a row for*/
+	private Set<String> writtenRows() throws IOException {
+		Set<String> written = new HashSet<>();
+		if (Files.exists(csv)) {
+			for (String line : Files.readAllLines(csv)) {
+				if (!line.isEmpty() && !line.equals(HEADER))
+					written.add(line.substring(0, line.indexOf(',')));
+			}
+		}
+		return written;
+	}
+
+	/**Statistics of every scenario from the checkpoint, if any, or empty ones*/
+	private void resume() throws IOException {
+		Map<String, String[]> saved = new HashMap<>();
+		if (Files.exists(checkpoint)) {
+			List<String> lines = Files.readAllLines(checkpoint);
+			String expected = settings();
+			if (lines.isEmpty() || !lines.get(0).equals(expected))
+				throw new IllegalStateException(checkpoint + " was written by a sweep with other settings than " +
+						expected + ": delete it to start over");
+			for (String line : lines.subList(1, lines.size())) {
+				String[] fields = line.split("\t");
+				saved.put(fields[0], fields);
+			}
+		}
+		for (int s = 0; s < scenarios.size(); s++) {
+			Scenario scenario = scenarios.get(s);
+			String[] fields = saved.get(scenario.getName());
+			if (fields == null) {
+				stats[s] = new RunningStats();
+				sketches[s] = new QuantileSketch();
+				continue;
+			}
+			if (fields.length < 8)
+				throw new IllegalStateException(checkpoint + " has no quantile sketch for " + scenario.getName() +
+						": delete it to start over");
+			String[] tiers = scenario.describe();
+			for (int f = 0; f < tiers.length; f++) {
+				if (!fields[f + 1].equals(tiers[f]))
+					throw new IllegalStateException(checkpoint + " holds another " + scenario.getName() +
+							" scenario: delete it to start over");
+			}
+			stats[s] = new RunningStats(Long.parseLong(fields[4]), Double.parseDouble(fields[5]),
+					Double.parseDouble(fields[6]));
+			sketches[s] = QuantileSketch.decode(fields[7]);
+		}
+	}
+
+	/**Writes the statistics of every scenario next to the CSV file, replacing the previous checkpoint at once*/
+	private void saveCheckpoint() throws IOException {
+		List<String> lines = new ArrayList<>();
+		lines.add(settings());
+		for (int s = 0; s < scenarios.size(); s++) {
+			if (stats[s].getCount() == 0)
+				continue;
+			String[] tiers = scenarios.get(s).describe();
+			//Double.toString round-trips, so a resumed sweep adds up to the very same statistics
+			lines.add(String.join("\t", scenarios.get(s).getName(), tiers[0], tiers[1], tiers[2],
+					Long.toString(stats[s].getCount()), Double.toString(stats[s].getMean()),
+					Double.toString(stats[s].getSumOfSquares()), sketches[s].encode()));
+		}
+		Path temporary = Paths.get(checkpoint + ".tmp");
+		Files.write(temporary, lines);
+		Files.move(temporary, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private String settings() {
+		return "seed " + masterSeed + ", " + trials + " trials, " + engine + " engine, " + strategy + " tester";
+	}
+}
@@ -0,0 +1,49 @@
+package soulsestimations;
+
+import java.util.SplittableRandom;
+
+/**How the tester picks the enemy attack to test the current character attack against. The character attacks are
+ * still classified one at a time, in node order, so that the tester only needs to equip one at a time in game:
+ * begin(c) is followed by next() until c is resolved, then by end(c)*/
+public interface TestStrategy {
+    /**The testers a trial can simulate*/
+    enum Kind {
+        /**Every enemy attack in a fresh random order for each character attack*/
+        RANDOM,
+        /**Binary insertion: an enemy attack of the band holding the median of the unresolved ones*/
+        MEDIAN,
+        /**The band whose test leaves the fewest unresolved enemy attacks, in expected log2*/
+        INFORMATION;
+
+        /**A fresh tester for a trial of the given # of character and enemy nodes*/
+        public TestStrategy create(int characters, int enemies) {
+            switch (this) {
+                case MEDIAN:
+                    return new BandSplitStrategy(characters, enemies, false);
+                case INFORMATION:
+                    return new BandSplitStrategy(characters, enemies, true);
+                default:
+                    return new RandomOrderStrategy(characters, enemies);
+            }
+        }
+    }
+
+    /**Starts testing character node c*/
+    void begin(int c, KnowledgeState less, SplittableRandom rnd);
+
+    /**Enemy node to test c against next, or -1 once neither less(c, e) nor less(e, c) is unknown for any of them*/
+    int next(KnowledgeState less, SplittableRandom rnd);
+
+    /**c is resolved*/
+    void end(int c, KnowledgeState less);
+
+    /**Forgets every character node tested so far, so the tester can be reused for another trial*/
+    void clear();
+
+    /**What the tester carries over from the character nodes tested so far to the next one, between end(c) and the
+     * next begin: what TrialSnapshot saves of it*/
+    int[] save();
+
+    /**Takes up where the tester that saved state left off, as if it had tested the same character nodes*/
+    void restore(int[] state);
+}
@@ -0,0 +1,76 @@
+package soulsestimations;
+
+import soulsestimations.Poise.Stance;
+
+/**Everything a trial of one configuration works on: the buffers its world is sampled into, its knowledge state and
+ * its tester. Every worker thread keeps the context of the configuration it last ran, and runOneTrial resets it
+ * rather than allocating a new one, so that after the first trial of a configuration the trial loop produces no
+ * garbage. The workers of a sweep only build a new context when they move on to the next scenario.
+ * Configurations are told apart by the identity of their tier arrays, as every main, scenario and benchmark passes the
+ * same ones for all of its trials*/
+public class TrialContext {
+    private static final Stance[] NO_POISES = new Stance[0];
+    private static final ThreadLocal<TrialContext> LAST = new ThreadLocal<>();
+
+    private final Stance[] poises;
+    private final Stance[] hyperarmours;
+    private final Stance[] damages;
+    private final KnowledgeState.Engine engine;
+    private final TestStrategy.Kind strategy;
+    //the poise order and the weights it's drawn with, for the mixed model
+    final int[] poiseOrder;
+    final int[] poiseWeights;
+    //the hyperarmour and stance damage values, shuffled in place by every trial
+    final int[] hyperarmourValues;
+    final int[] damageValues;
+    //the hidden value of every node
+    final double[] nodeValues;
+    final KnowledgeState less;
+    final TestStrategy tester;
+    //where the loop of the mixed model is, see MonteCarloMixed.runFrom
+    final int[] position = new int[3];
+
+    private TrialContext(Stance[] poises, Stance[] hyperarmours, Stance[] damages, KnowledgeState.Engine engine,
+    		TestStrategy.Kind strategy) {
+        this.poises = poises;
+        this.hyperarmours = hyperarmours;
+        this.damages = damages;
+        this.engine = engine;
+        this.strategy = strategy;
+        int m = MonteCarloHyperarmour.count(hyperarmours);
+        int n = MonteCarloHyperarmour.count(damages);
+        int characters = Math.max(poises.length, 1) * m;
+        this.poiseOrder = new int[poises.length];
+        this.poiseWeights = new int[poises.length];
+        this.hyperarmourValues = new int[m];
+        this.damageValues = new int[n];
+        this.nodeValues = new double[characters + n];
+        this.less = engine.create(nodeValues, characters, n, poises.length == 0 ? Math.max(m, 1) : m);
+        this.tester = strategy.create(characters, n);
+    }
+
+    /**The context of the calling thread for a trial of MonteCarloHyperarmour*/
+    static TrialContext of(Stance[] hyperarmours, Stance[] damages, KnowledgeState.Engine engine,
+    		TestStrategy.Kind strategy) {
+        return of(NO_POISES, hyperarmours, damages, engine, strategy);
+    }
+
+    /**The context of the calling thread for a trial of MonteCarloMixed, built anew only if the thread last ran
+     * another configuration. Its buffers hold what the last trial left in them*/
+    static TrialContext of(Stance[] poises, Stance[] hyperarmours, Stance[] damages, KnowledgeState.Engine engine,
+    		TestStrategy.Kind strategy) {
+        TrialContext context = LAST.get();
+        if (context == null || context.poises != poises || context.hyperarmours != hyperarmours ||
+        		context.damages != damages || context.engine != engine || context.strategy != strategy) {
+            context = new TrialContext(poises, hyperarmours, damages, engine, strategy);
+            LAST.set(context);
+        }
+        return context;
+    }
+
+    /**Readies the knowledge state and the tester for a trial, once nodeValues holds its world*/
+    void reset() {
+        less.reset(nodeValues);
+        tester.clear();
+    }
+}
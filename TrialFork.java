@@ -0,0 +1,132 @@
+package soulsestimations;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.SplittableRandom;
+
+/**Continuations of one trial of MonteCarloMixed from a shared prefix of observations: how many tests the rest of the
+ * trial takes, its world and what the first tests found out being given, over fresh draws of the tester.
+ * The first run plays trial t of the master seed on a mapped OffHeapKnowledge until it performed the given # of
+ * tests, pausing before the next character attack, and saves its knowledge state to the snapshot file and the rest
+ * of the trial, a TrialSnapshot, next to it (snapshot file + ".trial"); the trial then goes on with its own stream, so
+ * it takes as many tests as in MonteCarloMixed. Every run forks the continuations from the snapshot copy-on-write, each
+ * drawing from a stream split from the trial's, so the prefix is paid for once whatever the # of continuations or
+ * runs. Delete both files to snapshot another trial*/
+public class TrialFork {
+    //continuations, unless given
+    static final int CONTINUATIONS = 20;
+    //tests before the snapshot, unless given
+    static final int PREFIX = 100_000;
+
+    /**Arguments: snapshot file [trial] [tests before the snapshot] [continuations] [master seed]
+     * [tester: random, median or information] [sampling: plain, antithetic or stratified]. Once the snapshot is
+     * there, its trial, seed, tester and sampling are taken instead of the arguments*/
+    public static void main(String[] args) {
+        if (args.length == 0)
+            throw new IllegalArgumentException("Usage: TrialFork <snapshot file> [trial] [tests] [continuations] " +
+            		"[master seed] [tester] [sampling]");
+        Path file = Paths.get(args[0]);
+        Path trialFile = file.resolveSibling(file.getFileName() + ".trial");
+        long t0 = System.currentTimeMillis();
+        if (!Files.exists(file) || !Files.exists(trialFile)) {
+            long trial = args.length > 1 ? Long.parseLong(args[1]) : 0;
+            int prefix = args.length > 2 ? Integer.parseInt(args[2]) : PREFIX;
+            long seed = args.length > 4 ? Long.parseLong(args[4]) : System.nanoTime();
+            TestStrategy.Kind strategy = args.length > 5 ? TestStrategy.Kind.valueOf(args[5].toUpperCase()) :
+            		TestStrategy.Kind.RANDOM;
+            Sampling sampling = args.length > 6 ? Sampling.valueOf(args[6].toUpperCase()) : Sampling.PLAIN;
+            if (sampling == Sampling.CONTROL)
+                throw new IllegalArgumentException("A single trial has nothing to control: plain, antithetic or " +
+                		"stratified");
+            if (!snapshot(file, trialFile, seed, trial, prefix, strategy, sampling))
+                return;
+        }
+        TrialSnapshot snapshot = TrialSnapshot.read(trialFile);
+        if (!snapshot.isOf(MonteCarloMixed.SCENARIO))
+            throw new IllegalArgumentException(trialFile + " was saved with other tiers, or another version of the " +
+            		"model, than this one: delete it and " + file);
+        int continuations = args.length > 3 ? Integer.parseInt(args[3]) : CONTINUATIONS;
+        System.out.printf("%d continuations of trial %d of master seed %d (%s sampling, %s tester) after its first " +
+        		"%d tests%n", continuations, snapshot.getTrial(), snapshot.getMasterSeed(), snapshot.getSampling(),
+        		snapshot.getStrategy(), snapshot.getTestsPerformed());
+        RunningStats stats = new RunningStats();
+        QuantileSketch sketch = new QuantileSketch();
+        SplittableRandom rnd = snapshot.getSampling().streamFor(snapshot.getMasterSeed(), snapshot.getTrial());
+        double[] nodeValues = nodeValues(rnd, snapshot.getTrial(), snapshot.getSampling());
+        for (int k = 0; k < continuations; k++) {
+            OffHeapKnowledge less = OffHeapKnowledge.fork(file);
+            int[] position = snapshot.getPosition();
+            MonteCarloMixed.runFrom(less, snapshot.restoreTester(MonteCarloMixed.POISE_MODIFIED_ATTACK_NODES,
+            		MonteCarloMixed.N), nodeValues, MonteCarloMixed.L, MonteCarloMixed.M, rnd.split(), position,
+            		Integer.MAX_VALUE, probe(snapshot.getStrategy()));
+            stats.add(position[2] - snapshot.getTestsPerformed());
+            sketch.add(position[2]);
+        }
+        System.out.println("\nRESULTS");
+        System.out.printf("Tests left = %.3f ± %.3f (99%% CI)%n", stats.getMean(), stats.halfWidth());
+        System.out.printf("Tests per trial: %s%n", sketch);
+        System.out.printf("Total runtime: %.1f s%n", (System.currentTimeMillis() - t0) / 1000.0);
+    }
+
+    /**Plays the trial up to the snapshot and on to its end, saving it on the way, on a state mapped from a work file
+     * next to the snapshot (snapshot file + ".work"). False if it ended before the snapshot.
+     * The work file is deleted once play let go of the state, but the mapping itself is only released when collected:
+     * where a mapped file can't be deleted (Windows), the work file outlives it and is left, rather than failing a
+     * trial that is over*/
+    private static boolean snapshot(Path file, Path trialFile, long seed, long trial, int prefix,
+    		TestStrategy.Kind strategy, Sampling sampling) {
+        System.out.printf("Playing trial %d of master seed %d (%s sampling, %s tester) up to test %d%n", trial, seed,
+        		sampling, strategy, prefix);
+        Path work = file.resolveSibling(file.getFileName() + ".work");
+        try {
+            return play(work, file, trialFile, seed, trial, prefix, strategy, sampling);
+        } finally {
+            try {
+                Files.deleteIfExists(work);
+            } catch (IOException e) {
+                System.out.println("Can't delete " + work + ", which may still be mapped: delete it once this is over");
+            }
+        }
+    }
+
+    /**The trial of snapshot, on a state mapped from work*/
+    private static boolean play(Path work, Path file, Path trialFile, long seed, long trial, int prefix,
+    		TestStrategy.Kind strategy, Sampling sampling) {
+        SplittableRandom rnd = sampling.streamFor(seed, trial);
+        double[] nodeValues = nodeValues(rnd, trial, sampling);
+        OffHeapKnowledge less = OffHeapKnowledge.mapped(work, MonteCarloMixed.POISE_MODIFIED_ATTACK_NODES,
+        		MonteCarloMixed.N, MonteCarloMixed.M);
+        TestStrategy tester = strategy.create(MonteCarloMixed.POISE_MODIFIED_ATTACK_NODES, MonteCarloMixed.N);
+        int[] position = new int[3];
+        Instrumentation.Probe probe = probe(strategy);
+        if (MonteCarloMixed.runFrom(less, tester, nodeValues, MonteCarloMixed.L, MonteCarloMixed.M, rnd,
+        		position, prefix, probe)) {
+            System.out.printf("Trial %d is over after %d tests: nothing to fork%n", trial, position[2]);
+            return false;
+        }
+        less.snapshot(file);
+        new TrialSnapshot(MonteCarloMixed.SCENARIO, seed, trial, strategy, sampling, position, tester.save())
+        		.write(trialFile);
+        System.out.printf("Saved it after %d tests, at character attack %d of poise tier %d, to %s%n",
+        		position[2], position[1], position[0], file);
+        MonteCarloMixed.runFrom(less, tester, nodeValues, MonteCarloMixed.L, MonteCarloMixed.M, rnd, position,
+        		Integer.MAX_VALUE, probe);
+        System.out.printf("The trial itself takes %d tests%n", position[2]);
+        return true;
+    }
+
+    /**The world of the trial, drawn from its stream rnd as MonteCarloMixed does, which leaves rnd where the tests
+     * start*/
+    private static double[] nodeValues(SplittableRandom rnd, long trial, Sampling sampling) {
+        return MonteCarloMixed.populateNodes(MonteCarloMixed.POISES, MonteCarloMixed.HYPERARMOURS,
+        		MonteCarloMixed.DAMAGES, rnd, sampling.isMirrored(trial),
+        		sampling.stratum(trial, MonteCarloMixed.POISE_WEIGHTS));
+    }
+
+    private static Instrumentation.Probe probe(TestStrategy.Kind strategy) {
+        return Instrumentation.ENABLED ?
+        		new Instrumentation.Probe("mixed", KnowledgeState.Engine.OFFHEAP, strategy) : null;
+    }
+}
@@ -0,0 +1,116 @@
+package soulsestimations;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**Runs independent Monte Carlo trials on a fixed pool of worker threads.
+ * Trial t draws every random decision from its own stream, seeded from the master seed and t alone, and results
+ * are handed back in trial order: the statistics of a run are the same whatever the number of threads*/
+public class TrialRunner implements AutoCloseable {
+	/**A single Monte Carlo trial, returning the number of tests performed*/
+	public interface Trial {
+		int run(long trial, SplittableRandom rnd);
+	}
+
+	/**Receives the result of every trial, in trial order, on the thread that called run*/
+	public interface Sink {
+		void accept(long trial, int testsPerformed);
+	}
+
+	//trials handed to the workers at a time; results are passed to the sink in between
+	private static final int TRIALS_PER_WORKER = 16;
+	//odd constant of Java's SplittableRandom, used to space out the per-trial seeds
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	private final int threads;
+	private final ExecutorService pool;
+
+	public TrialRunner(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("threads must be positive: " + threads);
+		this.threads = threads;
+		this.pool = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "trial-worker");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**Independent random stream of trial t under masterSeed*/
+	public static SplittableRandom streamFor(long masterSeed, long trial) {
+		return new SplittableRandom(mix64(masterSeed + (trial + 1) * GOLDEN_GAMMA));
+	}
+
+	/**Runs trials [firstTrial, firstTrial + trials) of masterSeed*/
+	public void run(Trial trial, long masterSeed, long firstTrial, long trials, Sink sink) {
+		run(trial, masterSeed, firstTrial, trials, sink, () -> false);
+	}
+
+	/**Runs trials [firstTrial, firstTrial + trials) of masterSeed, but stops after the first trial whose result
+	 * makes done true. done is checked after every result, in trial order, so the run stops at the same trial
+	 * whatever the number of threads; the results of the batch beyond it are discarded.
+	 * Returns the # of trials passed to the sink*/
+	public long run(Trial trial, long masterSeed, long firstTrial, long trials, Sink sink, BooleanSupplier done) {
+		int[] results = new int[(int) Math.min((long) threads * TRIALS_PER_WORKER, Math.max(trials, 1))];
+		long end = firstTrial + trials;
+		for (long start = firstTrial; start < end; ) {
+			int size = (int) Math.min(results.length, end - start);
+			runBatch(trial, masterSeed, start, results, size);
+			for (int i = 0; i < size; i++) {
+				sink.accept(start + i, results[i]);
+				if (done.getAsBoolean())
+					return start + i + 1 - firstTrial;
+			}
+			start += size;
+		}
+		return trials;
+	}
+
+	/**Fills results[0, size) with trials start, start + 1, ... pulled by the workers as they become free*/
+	private void runBatch(Trial trial, long masterSeed, long start, int[] results, int size) {
+		AtomicInteger next = new AtomicInteger();
+		List<Future<?>> workers = new ArrayList<>(threads);
+		for (int w = 0; w < Math.min(threads, size); w++) {
+			workers.add(pool.submit(() -> {
+				for (int i = next.getAndIncrement(); i < size; i = next.getAndIncrement())
+					results[i] = trial.run(start + i, streamFor(masterSeed, start + i));
+			}));
+		}
+		try {
+			for (Future<?> worker : workers)
+				worker.get();
+		} catch (InterruptedException e) {
+			workers.forEach(worker -> worker.cancel(true));
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for trials", e);
+		} catch (ExecutionException e) {
+			workers.forEach(worker -> worker.cancel(true));
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**Stafford's variant 13 of the MurmurHash3 finalizer, as used by SplittableRandom itself*/
+	private static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	@Override
+	public void close() {
+		pool.shutdownNow();
+	}
+}
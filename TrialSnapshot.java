@@ -0,0 +1,133 @@
+package soulsestimations;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**Where a paused trial of MonteCarloMixed was, besides its knowledge state, which OffHeapKnowledge.snapshot saves:
+ * the trial (master seed, trial index, tester and sampling mode, and the ResultCache key of the run, so that only the
+ * same version of the model takes it up), the position of the trial loop, {pIdx, cIdx, testsPerformed}, see
+ * MonteCarloMixed.runFrom, and what the tester saved.
+ * The world isn't saved, as it's drawn again from the stream of the trial; the stream itself can't be, so a trial
+ * taken up draws the tests that are left from a stream of its own*/
+public class TrialSnapshot {
+    private static final int MAGIC = 0x48415453;
+
+    private final String key;
+    private final long masterSeed;
+    private final long trial;
+    private final TestStrategy.Kind strategy;
+    private final Sampling sampling;
+    private final int[] position;
+    private final int[] testerState;
+
+    public TrialSnapshot(Scenario scenario, long masterSeed, long trial, TestStrategy.Kind strategy,
+    		Sampling sampling, int[] position, int[] testerState) {
+        this(ResultCache.key(scenario, KnowledgeState.Engine.OFFHEAP, strategy, sampling, masterSeed), masterSeed,
+        		trial, strategy, sampling, position.clone(), testerState);
+    }
+
+    private TrialSnapshot(String key, long masterSeed, long trial, TestStrategy.Kind strategy, Sampling sampling,
+    		int[] position, int[] testerState) {
+        this.key = key;
+        this.masterSeed = masterSeed;
+        this.trial = trial;
+        this.strategy = strategy;
+        this.sampling = sampling;
+        this.position = position;
+        this.testerState = testerState;
+    }
+
+    public long getMasterSeed() {
+        return masterSeed;
+    }
+
+    public long getTrial() {
+        return trial;
+    }
+
+    public TestStrategy.Kind getStrategy() {
+        return strategy;
+    }
+
+    public Sampling getSampling() {
+        return sampling;
+    }
+
+    /**A copy of {pIdx, cIdx, testsPerformed}, for MonteCarloMixed.runFrom to go on from*/
+    public int[] getPosition() {
+        return position.clone();
+    }
+
+    /**# of tests performed before the snapshot*/
+    public int getTestsPerformed() {
+        return position[2];
+    }
+
+    /**A tester of the trial, as it was when the snapshot was taken*/
+    public TestStrategy restoreTester(int characters, int enemies) {
+        TestStrategy tester = strategy.create(characters, enemies);
+        tester.restore(testerState);
+        return tester;
+    }
+
+    /**Whether this is a trial of scenario, run by the same version of the model*/
+    public boolean isOf(Scenario scenario) {
+        return key.equals(ResultCache.key(scenario, KnowledgeState.Engine.OFFHEAP, strategy, sampling, masterSeed));
+    }
+
+    /**Writes the snapshot to a temporary file next to the given one, then renames it, so that a file is either whole
+     * or missing*/
+    public void write(Path file) {
+        Path partial = file.resolveSibling(file.getFileName() + ".partial");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(partial)))) {
+            out.writeInt(MAGIC);
+            out.writeUTF(key);
+            out.writeLong(masterSeed);
+            out.writeLong(trial);
+            out.writeUTF(strategy.name());
+            out.writeUTF(sampling.name());
+            for (int p : position)
+                out.writeInt(p);
+            out.writeInt(testerState.length);
+            for (int s : testerState)
+                out.writeInt(s);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't write " + partial, e);
+        }
+        try {
+            Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't move " + partial + " to " + file, e);
+        }
+    }
+
+    public static TrialSnapshot read(Path file) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC)
+                throw new IllegalArgumentException(file + " isn't a trial snapshot");
+            String key = in.readUTF();
+            long masterSeed = in.readLong();
+            long trial = in.readLong();
+            TestStrategy.Kind strategy = TestStrategy.Kind.valueOf(in.readUTF());
+            Sampling sampling = Sampling.valueOf(in.readUTF());
+            int[] position = new int[3];
+            for (int i = 0; i < position.length; i++)
+                position[i] = in.readInt();
+            int[] testerState = new int[in.readInt()];
+            for (int i = 0; i < testerState.length; i++)
+                testerState[i] = in.readInt();
+            if (in.read() != -1)
+                throw new IllegalArgumentException(file + " holds more than a trial snapshot");
+            return new TrialSnapshot(key, masterSeed, trial, strategy, sampling, position, testerState);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't read " + file, e);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package soulsestimations;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**applyTransitiveClosure alone, replaying the observations of a whole trial over and over.
+ * A third of the nodes are character attacks, the rest enemy attacks, with values drawn from a few tiers as in the
+ * Monte Carlo configurations. The Vector API path of the matrix is measured on a mvn -Pbenchmarks,vector build with
+ * -jvmArgsAppend "--add-modules=jdk.incubator.vector -Dhyperarmour.vector=true"*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClosureBenchmark {
+    @Param({"300", "900", "2700"})
+    int nodes;
+
+    @Param({"MATRIX", "INTERVALS", "OFFHEAP", "LAZY"})
+    KnowledgeState.Engine engine;
+
+    private KnowledgeState state;
+    //observations of one trial, in the order they were made: less(observations[2i], observations[2i + 1])
+    private int[] observations;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SplittableRandom rnd = new SplittableRandom(42);
+        int characters = nodes / 3;
+        int enemies = nodes - characters;
+        double[] values = new double[nodes];
+        for (int n = 0; n < nodes; n++)
+            values[n] = 30 * (1 + rnd.nextInt(5));
+        //the interval engine makes the same decisions as the matrix, and records them much faster
+        KnowledgeState recorder = new RankIntervalKnowledge(values, characters, enemies, characters);
+        List<Integer> recorded = new ArrayList<>();
+        int[] enemyIndices = new int[enemies];
+        for (int i = 0; i < enemies; i++)
+            enemyIndices[i] = characters + i;
+        for (int c = 0; c < characters; c++) {
+            MonteCarloHyperarmour.shuffleArray(enemyIndices, rnd);
+            for (int e : enemyIndices) {
+                if (recorder.get(c, e) || recorder.get(e, c))
+                    continue;
+                int u = values[e] < values[c] ? e : c;
+                int v = u == e ? c : e;
+                recorder.applyTransitiveClosure(u, v);
+                recorded.add(u);
+                recorded.add(v);
+                if (recorder.unresolvedEnemies(c) == 0)
+                    break;
+            }
+        }
+        observations = recorded.stream().mapToInt(Integer::intValue).toArray();
+        state = engine.create(values, characters, enemies, characters);
+        next = 0;
+    }
+
+    @Benchmark
+    public KnowledgeState applyTransitiveClosure() {
+        if (next == observations.length) {
+            state.clear();
+            next = 0;
+        }
+        state.applyTransitiveClosure(observations[next], observations[next + 1]);
+        next += 2;
+        return state;
+    }
+}
@@ -0,0 +1,61 @@
+package soulsestimations;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import soulsestimations.Poise.Stance;
+
+/**Poise.computeComplexity over all the permutations of L poise tiers, against Poise.DAMAGES.
+ * The permutation map is built once per L, so only its evaluation is measured; the streaming overload
+ * enumerates the permutations as part of every call*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class PoiseBenchmark {
+    @Param({"4", "6", "8"})
+    int tiers;
+
+    private List<Stance> poises;
+    private Map<List<Stance>, Double> permProbMap;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        //L tiers 15 poise apart, granted by 3 to 12 armours each
+        poises = new ArrayList<>();
+        for (int i = 0; i < tiers; i++)
+            poises.add(new Stance(31 + 15 * i, 3 + (7 * i) % 10));
+        List<List<Stance>> permutations = new ArrayList<>();
+        Poise.permute(poises, 0, permutations);
+        permProbMap = new HashMap<>();
+        permutations.forEach(p -> permProbMap.put(p, Poise.permutationProbability(p)));
+    }
+
+    @Benchmark
+    public double computeComplexity() {
+        return Poise.computeComplexity(poises, Poise.DAMAGES, permProbMap);
+    }
+
+    @Benchmark
+    public double computeComplexityStreaming() {
+        return Poise.computeComplexity(poises, Poise.DAMAGES);
+    }
+}
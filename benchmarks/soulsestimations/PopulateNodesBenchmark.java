@@ -0,0 +1,36 @@
+package soulsestimations;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**Sampling of a hidden world, for both Monte Carlo simulations*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PopulateNodesBenchmark {
+    private final SplittableRandom rnd = new SplittableRandom(42);
+
+    @Benchmark
+    public int[] hyperarmourNodes() {
+        return MonteCarloHyperarmour.populateNodes(MonteCarloHyperarmour.HYPERARMOURS, MonteCarloHyperarmour.DAMAGES, rnd);
+    }
+
+    @Benchmark
+    public double[] mixedNodes() {
+        return MonteCarloMixed.populateNodes(MonteCarloMixed.POISES, MonteCarloMixed.HYPERARMOURS,
+                MonteCarloMixed.DAMAGES, rnd);
+    }
+}
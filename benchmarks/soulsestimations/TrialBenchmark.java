@@ -0,0 +1,48 @@
+package soulsestimations;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**A single runOneTrial of either Monte Carlo simulation, each call drawing the next trial of a fixed master seed*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TrialBenchmark {
+    private static final long SEED = 42;
+
+    @Param({"MATRIX", "INTERVALS", "PRODUCT"})
+    KnowledgeState.Engine engine;
+
+    @Param({"RANDOM", "MEDIAN", "INFORMATION"})
+    TestStrategy.Kind strategy;
+
+    private long trial;
+
+    private SplittableRandom nextStream() {
+        return TrialRunner.streamFor(SEED, trial++);
+    }
+
+    @Benchmark
+    public int hyperarmourTrial() {
+        return MonteCarloHyperarmour.runOneTrial(nextStream(), false, engine, strategy);
+    }
+
+    @Benchmark
+    public int mixedTrial() {
+        return MonteCarloMixed.runOneTrial(nextStream(), false, -1, engine, strategy);
+    }
+}
@@ -0,0 +1,60 @@
+package soulsestimations;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**The engines drawing the same inferences as the matrix perform the very same # of tests as KnowledgeMatrix in
+ * every trial, with every tester: all of them on a scenario without poise tiers, all but PRODUCT on one with them, as
+ * PRODUCT knows that the poise tiers multiply the same character attacks and draws more.
+ * Small grids, so the whole suite runs in seconds: EngineComparison measures the real scenarios*/
+class EngineAgreementTest {
+    private static final int TRIALS = 12;
+    private static final long SEED = 42;
+    private static final List<Scenario> SCENARIOS = Scenario.parse(List.of(
+    		"small; -; 0:10 31:16 61:20 91:12 121:2; 30:30 60:40 90:40 120:10",
+    		"smallmixed; 0:2 10:3 20:2; 20:5 30:6 40:7 50:8; 30:30 60:40 90:40 120:10"));
+    //results on the matrix, by scenario and tester
+    private static final Map<String, int[]> REFERENCE = new HashMap<>();
+
+    static List<Arguments> configurations() {
+        List<Arguments> configurations = new ArrayList<>();
+        for (Scenario scenario : SCENARIOS) {
+            for (TestStrategy.Kind strategy : TestStrategy.Kind.values()) {
+                for (KnowledgeState.Engine engine : KnowledgeState.Engine.values()) {
+                    if (engine != KnowledgeState.Engine.MATRIX && sameAsMatrix(engine, scenario))
+                        configurations.add(Arguments.of(scenario.getName(), strategy, engine));
+                }
+            }
+        }
+        return configurations;
+    }
+
+    @ParameterizedTest(name = "{0} {1} {2}")
+    @MethodSource("configurations")
+    void performsTheTestsOfTheMatrix(String name, TestStrategy.Kind strategy, KnowledgeState.Engine engine) {
+        Scenario scenario = SCENARIOS.stream().filter(s -> s.getName().equals(name)).findFirst().orElseThrow();
+        int[] reference = REFERENCE.computeIfAbsent(name + " " + strategy,
+        		key -> run(scenario, KnowledgeState.Engine.MATRIX, strategy));
+        assertArrayEquals(reference, run(scenario, engine, strategy), "tests per trial, against the MATRIX engine");
+    }
+
+    /**Whether engine draws the same inferences as the matrix in scenario*/
+    private static boolean sameAsMatrix(KnowledgeState.Engine engine, Scenario scenario) {
+        return engine != KnowledgeState.Engine.PRODUCT || !scenario.isMixed();
+    }
+
+    private static int[] run(Scenario scenario, KnowledgeState.Engine engine, TestStrategy.Kind strategy) {
+        int[] results = new int[TRIALS];
+        for (int t = 0; t < TRIALS; t++)
+            results[t] = scenario.runOneTrial(TrialRunner.streamFor(SEED, t), engine, strategy);
+        return results;
+    }
+}
@@ -0,0 +1,160 @@
+package soulsestimations;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+/**ProductOrderKnowledge against a brute-force closure, on random small instances of the poise × hyperarmour model.
+ * The brute force closes a relation on all the nodes, each pair being unknown, known less or equal (a character
+ * attack that didn't tank, or the tier chain) or known less (an attack that tanked), over the observations and the two
+ * facts of the model: the tier chain, node (g, c) being at most (h, c) whenever group h has the higher poise, and tier
+ * invariance, a character attack c less than c' in some tier, or than c' in a lower tier, being less than it in every
+ * tier. After every observation, less(c, e) must be known to the engine iff the closure holds c at most e, less(e, c)
+ * iff it holds e less than c, and either must hold of the values; the engine must count the unresolved enemy nodes
+ * and tell resolved groups the same way.
+ * Every other instance draws its values from a coarse grid with hyperarmour 0 in it, so that nodes tie within and
+ * across the tiers, and every node of a tier may be 0*/
+class ProductOrderKnowledgeTest {
+    private static final int INSTANCES = 600;
+    private static final byte UNKNOWN = 0;
+    private static final byte AT_MOST = 1;
+    private static final byte LESS = 2;
+    //the grid of the tying instances: 40 × 1.5 = 30 × 2 = 60, 20 × 1.5 = 30, ...
+    private static final double[] TIED_HYPERARMOURS = {0, 0, 20, 30, 40, 60, 80};
+    private static final double[] TIED_DAMAGES = {0, 20, 30, 40, 45, 60, 80, 90, 120};
+
+    @Test
+    void knowsWhatTheClosureImplies() {
+        SplittableRandom rnd = new SplittableRandom(42);
+        for (int instance = 0; instance < INSTANCES; instance++) {
+            int groups = 1 + rnd.nextInt(3);
+            int attacks = 1 + rnd.nextInt(4);
+            int enemies = 1 + rnd.nextInt(6);
+            int characters = groups * attacks;
+            boolean tied = instance % 2 == 1;
+            //distinct poises, in a random order of the groups; values that never tie, or drawn from the grid
+            int[] poises = new int[groups];
+            for (int g = 0; g < groups; g++)
+                poises[g] = (tied ? 50 : 10) * g;
+            MonteCarloHyperarmour.shuffleArray(poises, rnd);
+            double[] values = new double[characters + enemies];
+            double[] hyperarmours = new double[attacks];
+            for (int c = 0; c < attacks; c++)
+                hyperarmours[c] = tied ? TIED_HYPERARMOURS[rnd.nextInt(TIED_HYPERARMOURS.length)] :
+                		10 + 90 * rnd.nextDouble();
+            for (int g = 0; g < groups; g++) {
+                for (int c = 0; c < attacks; c++)
+                    values[g * attacks + c] = hyperarmours[c] * (1.0 + poises[g] / 100.0);
+            }
+            for (int e = 0; e < enemies; e++)
+                values[characters + e] = tied ? TIED_DAMAGES[rnd.nextInt(TIED_DAMAGES.length)] :
+                		5 + 170 * rnd.nextDouble();
+            String name = "instance " + instance + ", poises " + Arrays.toString(poises) + ", hyperarmours " +
+            		Arrays.toString(hyperarmours);
+
+            //with every hyperarmour 0, every node is 0 and no value tells the poises apart: the tiers are then as
+            //true in any order, and the engine keeps that of the groups
+            int[] ranks = poises;
+            if (Arrays.stream(hyperarmours).allMatch(h -> h == 0))
+                ranks = IntStream.range(0, groups).toArray();
+
+            ProductOrderKnowledge less = new ProductOrderKnowledge(values, characters, enemies, attacks);
+            byte[][] closure = structure(ranks, attacks, enemies);
+            close(closure, ranks, attacks);
+            for (int test = 0; test < 2 * characters * enemies; test++) {
+                int c = rnd.nextInt(characters);
+                int e = characters + rnd.nextInt(enemies);
+                //as the trial loops observe it
+                if (values[e] < values[c]) {
+                    less.applyTransitiveClosure(e, c);
+                    closure[e][c] = LESS;
+                } else {
+                    less.applyTransitiveClosure(c, e);
+                    closure[c][e] = (byte) Math.max(closure[c][e], AT_MOST);
+                }
+                close(closure, ranks, attacks);
+                String after = name + ", after test " + test + " of " + c + ", " + e;
+                boolean allResolved = true;
+                for (int g = 0; g < groups; g++) {
+                    boolean groupResolved = true;
+                    for (int n = g * attacks; n < (g + 1) * attacks; n++) {
+                        int unresolved = 0;
+                        for (int k = characters; k < characters + enemies; k++) {
+                            boolean below = closure[n][k] != UNKNOWN;
+                            boolean above = closure[k][n] == LESS;
+                            assertEquals(below, less.get(n, k), after + ": less(" + n + ", " + k + ")");
+                            assertEquals(above, less.get(k, n), after + ": less(" + k + ", " + n + ")");
+                            assertTrue(!below || values[n] <= values[k], after + ": " + n + " at most " + k);
+                            assertTrue(!above || values[k] < values[n], after + ": " + k + " less than " + n);
+                            if (!below && !above)
+                                unresolved++;
+                        }
+                        assertEquals(unresolved, less.unresolvedEnemies(n), after + ": unresolved enemies of " + n);
+                        groupResolved &= unresolved == 0;
+                    }
+                    assertEquals(groupResolved, less.isGroupResolved(g), after + ": group " + g + " resolved");
+                    allResolved &= groupResolved;
+                }
+                assertEquals(allResolved, less.isAllResolved(), after + ": all resolved");
+            }
+        }
+    }
+
+    /**The tier chain: (g, c) at most (h, c) whenever poises[g] < poises[h], as hyperarmour c may be 0*/
+    private static byte[][] structure(int[] poises, int attacks, int enemies) {
+        int characters = poises.length * attacks;
+        byte[][] closure = new byte[characters + enemies][characters + enemies];
+        for (int g = 0; g < poises.length; g++) {
+            for (int h = 0; h < poises.length; h++) {
+                if (poises[g] < poises[h]) {
+                    for (int c = 0; c < attacks; c++)
+                        closure[g * attacks + c][h * attacks + c] = AT_MOST;
+                }
+            }
+        }
+        return closure;
+    }
+
+    /**Transitive closure, a path being less as soon as one of its steps is, then tier invariance, until neither
+     * adds anything*/
+    private static void close(byte[][] closure, int[] poises, int attacks) {
+        int nodes = closure.length;
+        int characters = poises.length * attacks;
+        for (boolean changed = true; changed; ) {
+            changed = false;
+            for (int k = 0; k < nodes; k++) {
+                for (int i = 0; i < nodes; i++) {
+                    if (closure[i][k] == UNKNOWN)
+                        continue;
+                    for (int j = 0; j < nodes; j++) {
+                        byte path = (byte) Math.max(closure[i][k], closure[k][j]);
+                        if (closure[k][j] != UNKNOWN && path > closure[i][j]) {
+                            closure[i][j] = path;
+                            changed = true;
+                        }
+                    }
+                }
+            }
+            //(g, c) < (h, d) with poises[h] <= poises[g] means H(c) < H(d): then (s, c) < (s, d) in every group s
+            for (int a = 0; a < characters; a++) {
+                for (int b = 0; b < characters; b++) {
+                    int c = a % attacks;
+                    int d = b % attacks;
+                    if (c == d || closure[a][b] != LESS || poises[b / attacks] > poises[a / attacks])
+                        continue;
+                    for (int s = 0; s < poises.length; s++) {
+                        if (closure[s * attacks + c][s * attacks + d] != LESS) {
+                            closure[s * attacks + c][s * attacks + d] = LESS;
+                            changed = true;
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package soulsestimations;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**BitRows on LongVector of the preferred species, the words that don't fill a whole vector being done one at a time
+ * (masked loads and stores are much slower than that on JDK 17). Kept out of the default source root, as compiling
+ * it takes the incubator module: only built by mvn -Pvector, and only loaded by BitRows when asked for*/
+final class VectorBitRows implements BitRows.Kernel {
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+    VectorBitRows() {
+    }
+
+    @Override
+    public void or(long[] target, long[] mask, int words) {
+        int w = 0;
+        for (int end = SPECIES.loopBound(words); w < end; w += SPECIES.length())
+            LongVector.fromArray(SPECIES, target, w).or(LongVector.fromArray(SPECIES, mask, w)).intoArray(target, w);
+        for (; w < words; w++)
+            target[w] |= mask[w];
+    }
+
+    /**The missing bits of every vector are OR-ed together and tested once: rows are a few vectors long, and a test
+     * per vector costs more than the words it would skip*/
+    @Override
+    public boolean anyMissing(long[] a, long[] b, long[] mask, int from, int to) {
+        LongVector missing = LongVector.zero(SPECIES);
+        int w = from;
+        for (int end = from + SPECIES.loopBound(to - from); w < end; w += SPECIES.length()) {
+            LongVector known = LongVector.fromArray(SPECIES, a, w).or(LongVector.fromArray(SPECIES, b, w));
+            missing = missing.or(LongVector.fromArray(SPECIES, mask, w).lanewise(VectorOperators.AND_NOT, known));
+        }
+        for (; w < to; w++) {
+            if ((mask[w] & ~(a[w] | b[w])) != 0)
+                return true;
+        }
+        return missing.compare(VectorOperators.NE, 0L).anyTrue();
+    }
+}